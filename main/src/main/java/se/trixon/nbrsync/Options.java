@@ -24,8 +24,20 @@ import se.trixon.almond.util.OptionsBase;
  */
 public class Options extends OptionsBase {
 
+    public static final boolean DEFAULT_COMPACT_PROFILES = false;
+    public static final int DEFAULT_JOB_LIMIT = 0;
+    public static final int DEFAULT_OUTPUT_LIMIT = 0;
     public static final String DEFAULT_PATH_RSYNC = "rsync";
+    public static final int DEFAULT_PROGRESS_RATE = 10;
+    public static final int DEFAULT_RESOURCE_LIMIT = 0;
+    public static final boolean DEFAULT_VIRTUAL_THREADS = false;
+    public static final String KEY_COMPACT_PROFILES = "profiles.compact";
+    public static final String KEY_JOB_LIMIT = "limit.jobs";
+    public static final String KEY_OUTPUT_LIMIT = "limit.output";
     public static final String KEY_PATH_RSYNC = "path.rsync";
+    public static final String KEY_PROGRESS_RATE = "progress.rate";
+    public static final String KEY_RESOURCE_LIMIT = "limit.resource";
+    public static final String KEY_VIRTUAL_THREADS = "threads.virtual";
 
     public static Options getInstance() {
         return Holder.INSTANCE;
@@ -35,14 +47,62 @@ public class Options extends OptionsBase {
         mPreferences = NbPreferences.forModule(getClass());
     }
 
+    public int getJobLimit() {
+        return mPreferences.getInt(KEY_JOB_LIMIT, DEFAULT_JOB_LIMIT);
+    }
+
+    public int getOutputLimit() {
+        return mPreferences.getInt(KEY_OUTPUT_LIMIT, DEFAULT_OUTPUT_LIMIT);
+    }
+
+    public int getProgressRate() {
+        return mPreferences.getInt(KEY_PROGRESS_RATE, DEFAULT_PROGRESS_RATE);
+    }
+
+    public int getResourceLimit() {
+        return mPreferences.getInt(KEY_RESOURCE_LIMIT, DEFAULT_RESOURCE_LIMIT);
+    }
+
     public String getRsyncPath() {
         return mPreferences.get(KEY_PATH_RSYNC, DEFAULT_PATH_RSYNC);
     }
 
+    public boolean isCompactProfiles() {
+        return mPreferences.getBoolean(KEY_COMPACT_PROFILES, DEFAULT_COMPACT_PROFILES);
+    }
+
+    public boolean isVirtualThreads() {
+        return mPreferences.getBoolean(KEY_VIRTUAL_THREADS, DEFAULT_VIRTUAL_THREADS);
+    }
+
+    public void setCompactProfiles(boolean value) {
+        mPreferences.putBoolean(KEY_COMPACT_PROFILES, value);
+    }
+
+    public void setJobLimit(int value) {
+        mPreferences.putInt(KEY_JOB_LIMIT, value);
+    }
+
+    public void setOutputLimit(int value) {
+        mPreferences.putInt(KEY_OUTPUT_LIMIT, value);
+    }
+
+    public void setProgressRate(int value) {
+        mPreferences.putInt(KEY_PROGRESS_RATE, value);
+    }
+
+    public void setResourceLimit(int value) {
+        mPreferences.putInt(KEY_RESOURCE_LIMIT, value);
+    }
+
     public void setRsyncPath(String value) {
         mPreferences.put(KEY_PATH_RSYNC, value);
     }
 
+    public void setVirtualThreads(boolean value) {
+        mPreferences.putBoolean(KEY_VIRTUAL_THREADS, value);
+    }
+
     private static class Holder {
 
         private static final Options INSTANCE = new Options();
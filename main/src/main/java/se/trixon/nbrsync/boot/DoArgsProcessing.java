@@ -16,10 +16,15 @@
 package se.trixon.nbrsync.boot;
 
 import java.io.IOException;
-import java.time.Duration;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.netbeans.api.sendopts.CommandException;
 import org.netbeans.spi.sendopts.Arg;
 import org.netbeans.spi.sendopts.ArgsProcessor;
@@ -33,12 +38,18 @@ import se.trixon.almond.nbp.NbHelper;
 import se.trixon.almond.util.Dict;
 import se.trixon.almond.util.PomInfo;
 import se.trixon.almond.util.SystemHelper;
+import se.trixon.almond.util.TimeHelper;
 import se.trixon.nbrsync.NbRsync;
 import se.trixon.nbrsync.core.ExecutorManager;
 import se.trixon.nbrsync.core.JobManager;
+import se.trixon.nbrsync.core.Manifest;
 import se.trixon.nbrsync.core.Rsync;
+import se.trixon.nbrsync.core.RunLog;
 import se.trixon.nbrsync.core.Server;
 import se.trixon.nbrsync.core.StorageManager;
+import se.trixon.nbrsync.core.TaskManager;
+import se.trixon.nbrsync.core.history.Run;
+import se.trixon.nbrsync.core.job.Job;
 import se.trixon.nbrsync.ui.SummaryBuilder;
 
 /**
@@ -47,22 +58,68 @@ import se.trixon.nbrsync.ui.SummaryBuilder;
  */
 public class DoArgsProcessing implements ArgsProcessor {
 
+    @Arg(longName = "changes")
+    @Description(
+            displayName = "#DoArgsProcessing.changes.name",
+            shortDescription = "#DoArgsProcessing.changes.desc"
+    )
+    @Messages({
+        "DoArgsProcessing.changes.name=--changes <task>",
+        "DoArgsProcessing.changes.desc=list the changes of the recent runs of task"
+    })
+    public String mChangesOption;
+    @Arg(longName = "history")
+    @Description(
+            displayName = "#DoArgsProcessing.history.name",
+            shortDescription = "#DoArgsProcessing.history.desc"
+    )
+    @Messages({
+        "DoArgsProcessing.history.name=--history <job>",
+        "DoArgsProcessing.history.desc=list recent runs of job and its tasks"
+    })
+    public String mHistoryOption;
     @Arg(longName = "list")
     @Description(
             shortDescription = "#DoArgsProcessing.list.desc"
     )
     @Messages("DoArgsProcessing.list.desc=list jobs")
     public boolean mListOption;
+    @Arg(longName = "log")
+    @Description(
+            displayName = "#DoArgsProcessing.log.name",
+            shortDescription = "#DoArgsProcessing.log.desc"
+    )
+    @Messages({
+        "DoArgsProcessing.log.name=--log <job>",
+        "DoArgsProcessing.log.desc=print the errors and the last lines of the latest run of job"
+    })
+    public String mLogOption;
+    @Arg(longName = "parallel")
+    @Description(
+            shortDescription = "#DoArgsProcessing.parallel.desc"
+    )
+    @Messages("DoArgsProcessing.parallel.desc=run the jobs of --start in parallel")
+    public boolean mParallelOption;
+    @Arg(longName = "search")
+    @Description(
+            displayName = "#DoArgsProcessing.search.name",
+            shortDescription = "#DoArgsProcessing.search.desc"
+    )
+    @Messages({
+        "DoArgsProcessing.search.name=--search <text>",
+        "DoArgsProcessing.search.desc=print the lines of the --log run that contain text"
+    })
+    public String mSearchOption;
     @Arg(longName = "start")
     @Description(
             displayName = "#DoArgsProcessing.start.name",
             shortDescription = "#DoArgsProcessing.start.desc"
     )
     @Messages({
-        "DoArgsProcessing.start.name=--start <job>",
-        "DoArgsProcessing.start.desc=start job"
+        "DoArgsProcessing.start.name=--start <job>...",
+        "DoArgsProcessing.start.desc=start jobs and exit with the first non-zero exit code"
     })
-    public String mStartOption;
+    public String[] mStartOption;
 
     @Arg(longName = "start-server")
     @Description(
@@ -78,6 +135,13 @@ public class DoArgsProcessing implements ArgsProcessor {
     @Messages("DoArgsProcessing.stop-server.desc=stop server")
     public boolean mStopServerOption;
 
+    @Arg(longName = "status")
+    @Description(
+            shortDescription = "#DoArgsProcessing.status.desc"
+    )
+    @Messages("DoArgsProcessing.status.desc=list jobs running on the server")
+    public boolean mStatusOption;
+
     @Arg(longName = "remove-locks")
     @Description(
             shortDescription = "#DoArgsProcessing.remove-locks.desc"
@@ -91,13 +155,28 @@ public class DoArgsProcessing implements ArgsProcessor {
     )
     @Messages("DoArgsProcessing.version.desc=print the version information")
     public boolean mVersionOption;
+    private static final int MAX_SEARCH_MATCHES = 1000;
+    private static final int NUM_OF_LOG_LINES = 50;
+    private static final int NUM_OF_RECENT_RUNS = 10;
     private final ResourceBundle mBundle = NbBundle.getBundle(DoArgsProcessing.class);
 
+    public static String getJobListing(Job job) {
+        if (job.isScheduled()) {
+            return "%s\n %s".formatted(job.getName(), String.join("\n ", StringUtils.split(job.getCronItems(), "|")));
+        } else {
+            return job.getName();
+        }
+    }
+
     public DoArgsProcessing() {
     }
 
     @Override
     public void process(Env env) throws CommandException {
+        if (mSearchOption != null && mLogOption == null) {
+            throw new CommandException(2, mBundle.getString("searchWithoutLog"));
+        }
+
         if (mStartServerOption) {
             NbHelper.disableGui();
             Server.getInstance().start();
@@ -106,15 +185,31 @@ public class DoArgsProcessing implements ArgsProcessor {
         } else if (mVersionOption) {
             displayVersion();
             LifecycleManager.getDefault().exit();
-        } else if (mListOption) {
+        } else if (mHistoryOption != null) {
             load();
-            listJobs();
+            listHistory(mHistoryOption);
             LifecycleManager.getDefault().exit();
-        } else if (mStartOption != null) {
-            NbHelper.disableGui();
+        } else if (mChangesOption != null) {
+            load();
+            listChanges(mChangesOption);
+            LifecycleManager.getDefault().exit();
+        } else if (mLogOption != null) {
             load();
-            startJob(mStartOption);
+            printLog(mLogOption, mSearchOption);
             LifecycleManager.getDefault().exit();
+        } else if (mStatusOption) {
+            if (!sendToServer(Server.COMMAND_LIST)) {
+                System.out.println(Dict.SERVER_NOT_RUNNING.toString());
+            }
+            LifecycleManager.getDefault().exit();
+        } else if (mListOption) {
+            if (!sendToServer(Server.COMMAND_JOBS)) {
+                load();
+                listJobs();
+            }
+            LifecycleManager.getDefault().exit();
+        } else if (mStartOption != null) {
+            LifecycleManager.getDefault().exit(startJobs(mStartOption, mParallelOption));
         } else if (mRemoveLocksOption) {
             removeLocks();
             LifecycleManager.getDefault().exit();
@@ -128,14 +223,54 @@ public class DoArgsProcessing implements ArgsProcessor {
         System.out.println(Rsync.getInfo());
     }
 
+    /**
+     * Prints the counts of the latest manifests of a task, read from their
+     * trailers only.
+     *
+     * @param taskName
+     */
+    private void listChanges(String taskName) {
+        var task = TaskManager.getInstance().getByName(taskName);
+        if (task == null) {
+            System.out.println(mBundle.getString("taskNotFound").formatted(taskName));
+            return;
+        }
+
+        var manifests = Manifest.getManifests(task.getId());
+        if (manifests.isEmpty()) {
+            System.out.println(mBundle.getString("noChanges").formatted(task.getName()));
+            return;
+        }
+
+        for (var manifest : manifests.subList(0, Math.min(NUM_OF_RECENT_RUNS, manifests.size()))) {
+            System.out.println("%s  %s".formatted(
+                    StringUtils.removeEnd(manifest.getName(), Manifest.SUFFIX),
+                    StringUtils.defaultString(Manifest.getSummary(manifest), "-")
+            ));
+        }
+        System.out.println(manifests.getFirst().getParent());
+    }
+
+    private void listHistory(String jobName) {
+        var job = JobManager.getInstance().getByName(jobName);
+        if (job == null) {
+            System.out.println("%s: %s".formatted(Dict.JOB_NOT_FOUND.toString(), jobName));
+            return;
+        }
+
+        var storageManager = StorageManager.getInstance();
+        var simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        System.out.println(job.getName());
+        storageManager.getRecentRuns(job.getId(), NUM_OF_RECENT_RUNS).forEach(run -> printRun(simpleDateFormat, " ", run));
+
+        for (var task : job.getTasks()) {
+            System.out.println(" " + task.getName());
+            storageManager.getRecentRuns(task.getId(), NUM_OF_RECENT_RUNS).forEach(run -> printRun(simpleDateFormat, "  ", run));
+        }
+    }
+
     private void listJobs() {
-        JobManager.getInstance().getItems().forEach(job -> {
-            if (job.isScheduled()) {
-                System.out.println("%s\n %s".formatted(job.getName(), String.join("\n ", StringUtils.split(job.getCronItems(), "|"))));
-            } else {
-                System.out.println(job.getName());
-            }
-        });
+        JobManager.getInstance().getItems().forEach(job -> System.out.println(getJobListing(job)));
     }
 
     private void load() {
@@ -146,6 +281,40 @@ public class DoArgsProcessing implements ArgsProcessor {
         }
     }
 
+    private void printLog(String jobName, String text) {
+        var job = JobManager.getInstance().getByName(jobName);
+        if (job == null) {
+            System.out.println("%s: %s".formatted(Dict.JOB_NOT_FOUND.toString(), jobName));
+            return;
+        }
+
+        var runs = RunLog.getRuns(job.getId());
+        if (runs.isEmpty()) {
+            System.out.println(mBundle.getString("noLog").formatted(job.getName()));
+            return;
+        }
+
+        System.out.println(runs.getFirst().getPath());
+        if (text == null) {
+            RunLog.tail(runs.getFirst(), NUM_OF_LOG_LINES, System.out::println);
+        } else {
+            RunLog.search(runs.getFirst(), text, MAX_SEARCH_MATCHES, System.out::println);
+        }
+    }
+
+    private void printRun(SimpleDateFormat simpleDateFormat, String indent, Run run) {
+        var minSec = TimeHelper.millisToMinSec(run.getDuration());
+        System.out.println("%s%s  %dm %ds  %s [%d]%s".formatted(
+                indent,
+                simpleDateFormat.format(new Date(run.getStarted())),
+                minSec[0],
+                minSec[1],
+                run.getStatus(),
+                run.getExitCode(),
+                run.isDryRun() ? " (%s)".formatted(Dict.DRY_RUN.toString()) : ""
+        ));
+    }
+
     private void removeLocks() {
         try {
             FileUtils.forceDelete(NbRsync.getRunningJobsDirectory());
@@ -154,23 +323,117 @@ public class DoArgsProcessing implements ArgsProcessor {
         }
     }
 
-    private void startJob(String jobName) {
+    /**
+     * Runs the job on the server and prints its progress until it ends.
+     *
+     * @param jobName
+     * @return the exit code of the job, 1 if it could not be started
+     */
+    private int runOnServer(String jobName) {
+        var exitCode = new AtomicInteger(1);
+        Server.getInstance().send("%s %s".formatted(Server.COMMAND_RUN, jobName), line -> {
+            if (StringUtils.startsWith(line, Server.RESPONSE_ERROR)) {
+                System.err.println(StringUtils.removeStart(line, Server.RESPONSE_ERROR).trim());
+            } else if (StringUtils.startsWith(line, Server.RESPONSE_OK + " ")) {
+                exitCode.set(NumberUtils.toInt(StringUtils.removeStart(line, Server.RESPONSE_OK).trim(), 1));
+            } else {
+                System.out.println(line);
+            }
+        });
+
+        return exitCode.get();
+    }
+
+    /**
+     * Forwards the command to a running server and prints its response, so
+     * that the job runs in the server instead of in this instance.
+     *
+     * @param command
+     * @return false if no server is running
+     */
+    private boolean sendToServer(String command) {
+        var simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+        return Server.getInstance().send(command, line -> {
+            if (StringUtils.startsWith(line, Server.RESPONSE_ERROR)) {
+                System.err.println(StringUtils.removeStart(line, Server.RESPONSE_ERROR).trim());
+            } else if (!Server.RESPONSE_OK.equals(line)) {
+                if (Server.COMMAND_LIST.equals(command)) {
+                    var elements = StringUtils.splitPreserveAllTokens(line, '\t');
+                    if (elements.length == 4) {
+                        long started = Long.parseLong(elements[2]);
+                        line = "%s  %s  %s  %s".formatted(
+                                elements[0],
+                                elements[1],
+                                started > 0 ? simpleDateFormat.format(new Date(started)) : "-",
+                                elements[3]
+                        );
+                    }
+                }
+                System.out.println(line);
+            }
+        });
+    }
+
+    private CompletableFuture<Integer> startJob(String jobName) {
         var job = JobManager.getInstance().getByName(jobName);
         if (job != null) {
             if (job.isLocked()) {
                 System.out.println(mBundle.getString("skipRunningJob").formatted(job.getName()));
             } else {
-                ExecutorManager.getInstance().start(job, false);
-                while (true) {
-                    try {
-                        Thread.sleep(Duration.ofDays(1));
-                    } catch (InterruptedException ex) {
-                        Exceptions.printStackTrace(ex);
-                    }
-                }
+                return ExecutorManager.getInstance().start(job, false);
             }
         } else {
             System.out.println("%s: %s".formatted(Dict.JOB_NOT_FOUND.toString(), jobName));
         }
+
+        return CompletableFuture.completedFuture(1);
+    }
+
+    /**
+     * Starts the jobs, on a running server if there is one, and waits for
+     * them to end. A failed job does not stop the following ones.
+     *
+     * @param jobNames
+     * @param parallel
+     * @return the first non-zero exit code, or 0
+     */
+    private int startJobs(String[] jobNames, boolean parallel) {
+        //The jobs run on the server if one answers, else in this instance
+        boolean server = jobNames.length > 0 && Server.getInstance().send(Server.COMMAND_LIST, line -> {
+        });
+        if (!server) {
+            NbHelper.disableGui();
+            load();
+        }
+
+        //Every job runs, also after a failed one, and each job is waited for
+        //before the next one starts unless they run in parallel
+        int exitCode = 0;
+        var futures = new ArrayList<CompletableFuture<Integer>>();
+        for (var jobName : jobNames) {
+            CompletableFuture<Integer> future;
+            if (server) {
+                future = parallel
+                        ? CompletableFuture.supplyAsync(() -> runOnServer(jobName), runnable -> Thread.ofVirtual().start(runnable))
+                        : CompletableFuture.completedFuture(runOnServer(jobName));
+            } else {
+                future = startJob(jobName);
+            }
+
+            if (parallel) {
+                futures.add(future);
+            } else {
+                int result = future.join();
+                exitCode = exitCode == 0 ? result : exitCode;
+            }
+        }
+
+        for (var future : futures) {
+            int result = future.join();
+            exitCode = exitCode == 0 ? result : exitCode;
+        }
+
+        return exitCode;
     }
 }
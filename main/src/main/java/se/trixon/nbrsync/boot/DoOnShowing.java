@@ -29,6 +29,8 @@ import se.trixon.almond.util.Dict;
 import se.trixon.almond.util.SystemHelper;
 import se.trixon.nbrsync.NbRsync;
 import se.trixon.nbrsync.core.Server;
+import se.trixon.nbrsync.core.StateStore;
+import se.trixon.nbrsync.core.StorageManager;
 
 /**
  *
@@ -43,6 +45,9 @@ public class DoOnShowing implements Runnable {
             return;
         }
 
+        StorageManager.getInstance().saveJournaledChanges();
+        StateStore.getInstance().startMonitor();
+
         SystemHelper.setDesktopBrowser(url -> {
             try {
                 HtmlBrowser.URLDisplayer.getDefault().showURL(URI.create(url).toURL());
@@ -18,6 +18,7 @@ package se.trixon.nbrsync.boot;
 import java.io.IOException;
 import org.openide.modules.ModuleInstall;
 import org.openide.util.Exceptions;
+import se.trixon.nbrsync.core.HistoryWriter;
 import se.trixon.nbrsync.core.StorageManager;
 
 /**
@@ -28,6 +29,12 @@ public class Installer extends ModuleInstall {
 
     private final StorageManager mStorageManager = StorageManager.getInstance();
 
+    @Override
+    public void close() {
+        HistoryWriter.getInstance().flush();
+        mStorageManager.flush();
+    }
+
     @Override
     public void restored() {
         try {
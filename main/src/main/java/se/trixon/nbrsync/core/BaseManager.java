@@ -39,9 +39,7 @@ public abstract class BaseManager<T extends BaseItem> {
         mIdToItemProperty.setValue(FXCollections.observableHashMap());
 
         mIdToItemProperty.get().addListener((MapChangeListener.Change<? extends String, ? extends T> change) -> {
-            var values = new ArrayList<T>(getIdToItem().values());
-            values.sort((o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
-            getItems().setAll(values);
+            refresh();
         });
     }
 
@@ -93,4 +91,13 @@ public abstract class BaseManager<T extends BaseItem> {
     public ObjectProperty<ObservableList<T>> itemsProperty() {
         return mItemsProperty;
     }
+
+    /**
+     * Sorts the items and lets their views show the current values.
+     */
+    public void refresh() {
+        var values = new ArrayList<T>(getIdToItem().values());
+        values.sort((o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
+        getItems().setAll(values);
+    }
 }
@@ -15,7 +15,14 @@
  */
 package se.trixon.nbrsync.core;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import javax.swing.JButton;
 import javax.swing.SwingUtilities;
 import org.openide.DialogDescriptor;
@@ -24,18 +31,29 @@ import se.trixon.almond.nbp.dialogs.NbMessage;
 import se.trixon.almond.util.Dict;
 import se.trixon.almond.util.swing.SwingHelper;
 import se.trixon.almond.util.swing.dialogs.HtmlPanel;
+import se.trixon.nbrsync.Options;
 import se.trixon.nbrsync.core.job.Job;
 import se.trixon.nbrsync.core.job.JobValidator;
 import se.trixon.nbrsync.ui.SummaryBuilder;
 
 /**
+ * Starts jobs through a FIFO queue, running at most the configured number of
+ * jobs at once.
+ * <p>
+ * Jobs, their tasks and shards run on platform threads or, when enabled in
+ * the options, on virtual threads.
  *
  * @author Patrik Karlström <patrik@trixon.se>
  */
 public class ExecutorManager {
 
-    private final HashMap<String, JobExecutor> mJobExecutors = new HashMap<>();
+    private final ExecutorService mExecutorService = Executors.newCachedThreadPool(runnable -> new Thread(runnable, "JobExecutor"));
+    private final ConcurrentHashMap<String, JobExecutor> mJobExecutors = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, State> mJobIdToState = new ConcurrentHashMap<>();
+    private final Options mOptions = Options.getInstance();
+    private final ArrayDeque<JobExecutor> mQueue = new ArrayDeque<>();
     private final SummaryBuilder mSummaryBuilder = new SummaryBuilder();
+    private final ExecutorService mVirtualExecutorService = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("JobExecutor-", 1).factory());
 
     public static ExecutorManager getInstance() {
         return Holder.INSTANCE;
@@ -44,10 +62,69 @@ public class ExecutorManager {
     private ExecutorManager() {
     }
 
-    public HashMap<String, JobExecutor> getJobExecutors() {
+    /**
+     * Cancels a running job, or removes a queued one from the queue.
+     *
+     * @param jobExecutor
+     */
+    public void cancel(JobExecutor jobExecutor) {
+        synchronized (this) {
+            if (mQueue.remove(jobExecutor)) {
+                mJobIdToState.put(jobExecutor.getJob().getId(), State.FINISHED);
+                jobExecutor.cancelQueued();
+                return;
+            }
+        }
+
+        jobExecutor.cancel();
+    }
+
+    /**
+     * @return the executor that jobs are dispatched to, virtual or platform
+     * threads as set in the options
+     */
+    ExecutorService getExecutorService() {
+        return mOptions.isVirtualThreads() ? mVirtualExecutorService : mExecutorService;
+    }
+
+    /**
+     * @return the running jobs by job id
+     */
+    public Map<String, JobExecutor> getJobExecutors() {
         return mJobExecutors;
     }
 
+    /**
+     * @return the queued jobs, in the order they will start
+     */
+    public synchronized List<JobExecutor> getQueuedJobExecutors() {
+        return List.copyOf(mQueue);
+    }
+
+    /**
+     * @param jobId
+     * @return the state of the latest start of the job, or null if it hasn't
+     * been started
+     */
+    public State getState(String jobId) {
+        return mJobIdToState.get(jobId);
+    }
+
+    /**
+     * Creates the thread factory for the threads of a job, virtual or
+     * platform threads as set in the options.
+     *
+     * @param name of the threads
+     * @return the factory
+     */
+    public ThreadFactory newThreadFactory(String name) {
+        if (mOptions.isVirtualThreads()) {
+            return Thread.ofVirtual().name(name + "-", 1).factory();
+        }
+
+        return Thread.ofPlatform().name(name + "-", 1).factory();
+    }
+
     public void requestStart(Job job) {
         if (job.isLocked()) {
             NbMessage.error(Dict.Dialog.ERROR.toString(), "Job already running.");
@@ -91,11 +168,48 @@ public class ExecutorManager {
         }
     }
 
-    public void start(Job job, boolean dryRun) {
+    /**
+     * @param job
+     * @param dryRun
+     * @return completes with the exit code of the job
+     */
+    public CompletableFuture<Integer> start(Job job, boolean dryRun) {
         var jobExecutor = new JobExecutor(job, dryRun);
-        mJobExecutors.put(job.getId(), jobExecutor);
         job.setLocked(true);
-        jobExecutor.run();
+
+        synchronized (this) {
+            mQueue.add(jobExecutor);
+            mJobIdToState.put(job.getId(), State.QUEUED);
+            dispatch();
+            if (mQueue.contains(jobExecutor)) {
+                jobExecutor.printQueued(mJobExecutors.size());
+            }
+        }
+
+        return jobExecutor.getFuture();
+    }
+
+    synchronized void finished(JobExecutor jobExecutor) {
+        var jobId = jobExecutor.getJob().getId();
+        if (mJobExecutors.remove(jobId, jobExecutor)) {
+            mJobIdToState.put(jobId, State.FINISHED);
+        }
+        dispatch();
+    }
+
+    private synchronized void dispatch() {
+        int limit = mOptions.getJobLimit();
+        while (!mQueue.isEmpty() && (limit < 1 || mJobExecutors.size() < limit)) {
+            var jobExecutor = mQueue.poll();
+            var jobId = jobExecutor.getJob().getId();
+            mJobExecutors.put(jobId, jobExecutor);
+            mJobIdToState.put(jobId, State.RUNNING);
+            jobExecutor.run(getExecutorService());
+        }
+    }
+
+    public enum State {
+        QUEUED, RUNNING, FINISHED;
     }
 
     private static class Holder {
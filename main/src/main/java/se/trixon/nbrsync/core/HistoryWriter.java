@@ -0,0 +1,131 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.openide.util.Exceptions;
+
+/**
+ * Appends whole lines to the history file from a single writer thread, so
+ * that concurrent executors never interleave and the file is opened once.
+ *
+ * @author Patrik Karlström
+ */
+public class HistoryWriter {
+
+    private static final long FLUSH_TIMEOUT_SECONDS = 10;
+    private final BlockingQueue<Object> mQueue = new LinkedBlockingQueue<>();
+    private final StorageManager mStorageManager = StorageManager.getInstance();
+    private volatile Thread mThread;
+    private BufferedWriter mWriter;
+
+    public static HistoryWriter getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private HistoryWriter() {
+    }
+
+    /**
+     * Queues a line for writing.
+     *
+     * @param line a complete line, including the line separator
+     */
+    public void append(String line) {
+        start();
+        mQueue.add(line);
+    }
+
+    /**
+     * Waits until all lines queued so far are written to disk.
+     */
+    public void flush() {
+        if (mThread == null) {
+            return;
+        }
+
+        var latch = new CountDownLatch(1);
+        mQueue.add(latch);
+        try {
+            latch.await(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        var batch = new ArrayList<Object>();
+
+        while (true) {
+            try {
+                batch.add(mQueue.take());
+            } catch (InterruptedException ex) {
+                continue;
+            }
+            mQueue.drainTo(batch);
+
+            try {
+                if (mWriter == null) {
+                    var file = mStorageManager.getHistoryFile();
+                    FileUtils.forceMkdirParent(file);
+                    mWriter = Files.newBufferedWriter(file.toPath(), Charset.defaultCharset(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+
+                for (var item : batch) {
+                    if (item instanceof String line) {
+                        mWriter.write(line);
+                    }
+                }
+                mWriter.flush();
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+                IOUtils.closeQuietly(mWriter);
+                mWriter = null;
+            }
+
+            for (var item : batch) {
+                if (item instanceof CountDownLatch latch) {
+                    latch.countDown();
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private synchronized void start() {
+        if (mThread == null) {
+            mThread = new Thread(this::run, "HistoryWriter");
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+    }
+
+    private static class Holder {
+
+        private static final HistoryWriter INSTANCE = new HistoryWriter();
+    }
+}
@@ -15,23 +15,44 @@
  */
 package se.trixon.nbrsync.core;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.netbeans.api.extexecution.ExecutionDescriptor;
 import org.netbeans.api.extexecution.ExecutionService;
 import org.netbeans.api.extexecution.print.ConvertedLine;
 import org.netbeans.api.extexecution.print.LineConvertor;
 import org.netbeans.api.progress.ProgressHandle;
-import org.openide.LifecycleManager;
 import org.openide.awt.StatusDisplayer;
 import org.openide.util.Cancellable;
 import org.openide.util.Exceptions;
@@ -48,7 +69,11 @@ import se.trixon.almond.util.TimeHelper;
 import se.trixon.almond.util.fx.FxHelper;
 import se.trixon.nbrsync.NbRsync;
 import se.trixon.nbrsync.Options;
+import se.trixon.nbrsync.core.history.HistoryStore;
+import se.trixon.nbrsync.core.history.Run;
 import se.trixon.nbrsync.core.job.Job;
+import se.trixon.nbrsync.core.job.TaskGraph;
+import se.trixon.nbrsync.core.task.ShardPlanner;
 import se.trixon.nbrsync.core.task.Task;
 import se.trixon.nbrsync.ui.editor.BaseEditor;
 
@@ -58,26 +83,56 @@ import se.trixon.nbrsync.ui.editor.BaseEditor;
  */
 public class JobExecutor {
 
+    private static final long MAX_RETRY_DELAY_MILLIS = 60 * 60 * 1000;
+    private static final int PROCESS_BUFFER_SIZE = 64 * 1024;
+    private Cancellable mAllowToCancel;
     private final ResourceBundle mBundle = NbBundle.getBundle(BaseEditor.class);
-    private long mCurrentStartTime;
-    private LinkedHashMap<String, String> mCurrentTaskEnvironmentMap = new LinkedHashMap<>();
     private boolean mDryRun;
     private String mDryRunIndicator = "";
-    private Thread mExecutorThread;
-    private boolean mGui = NbHelper.isGui().get() == true;
-    private boolean mIndeterminate = true;
+    private volatile Thread mExecutorThread;
+    private volatile int mExitCode = 1;
+    private final CompletableFuture<Integer> mFuture = new CompletableFuture<>();
+    private boolean mHeadless;
+    private final HistoryStore mHistoryStore = HistoryStore.getInstance();
+    private final HistoryWriter mHistoryWriter = HistoryWriter.getInstance();
     private final InputOutput mInputOutput;
-    private boolean mInterrupted;
+    private final ConcurrentHashMap<InputOutput, LineRing> mInputOutputToLineRing = new ConcurrentHashMap<>();
+    private volatile boolean mInterrupted;
     private final Job mJob;
+    private Context mJobContext;
+    private boolean mJobEnded;
     private FoldHandle mMainFoldHandle;
-    private int mNumOfFailedTasks;
+    private final AtomicInteger mNumOfFailedTasks = new AtomicInteger();
     private Options mOptions = Options.getInstance();
     private OutputHelper mOutputHelper;
+    private int mOutputLimit;
     private ProgressHandle mProgressHandle;
+    private volatile String mProgressText = "";
+    private RunLog mRunLog;
     private long mStartTime;
+    private final StateStore mStateStore = StateStore.getInstance();
     private final StatusDisplayer mStatusDisplayer = StatusDisplayer.getDefault();
     private final StorageManager mStorageManager = StorageManager.getInstance();
-    private boolean mTaskFailed;
+    private ExecutorService mTaskExecutorService;
+    private volatile boolean mTasksHalted;
+
+    /**
+     * Reads the lines of a process stream until it ends or the process is
+     * destroyed.
+     *
+     * @param inputStream
+     * @param consumer of each line
+     */
+    static void readLines(InputStream inputStream, Consumer<String> consumer) {
+        try (var reader = new BufferedReader(new InputStreamReader(inputStream, Charset.defaultCharset()), PROCESS_BUFFER_SIZE)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                consumer.accept(line);
+            }
+        } catch (IOException ex) {
+            //The process was destroyed
+        }
+    }
 
     public JobExecutor(Job job, boolean dryRun) {
         mJob = job;
@@ -93,15 +148,77 @@ public class JobExecutor {
         mOutputHelper.reset();
     }
 
-    public void run() {
-        var allowToCancel = (Cancellable) () -> {
-            mExecutorThread.interrupt();
+    /**
+     * Cancels the job like the cancel action of its progress handle.
+     */
+    public void cancel() {
+        if (mAllowToCancel != null) {
+            mAllowToCancel.cancel();
+        }
+    }
+
+    /**
+     * Ends a job that was cancelled before it left the queue.
+     */
+    void cancelQueued() {
+        mJob.setLocked(false);
+        mOutputHelper.printSummary(OutputLineMode.WARNING, Dict.CANCELED.toString(), Dict.JOB.toString());
+        mFuture.complete(99);
+    }
+
+    /**
+     * @return completes with the exit code when the job has ended, 0 if the
+     * job and all of its tasks succeeded
+     */
+    public CompletableFuture<Integer> getFuture() {
+        return mFuture;
+    }
+
+    public Job getJob() {
+        return mJob;
+    }
+
+    /**
+     * @return the latest published rsync progress, or an empty string
+     */
+    public String getProgressText() {
+        return mProgressText;
+    }
+
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    public boolean isDryRun() {
+        return mDryRun;
+    }
+
+    /**
+     * Prints that the job waits for a free slot.
+     *
+     * @param numOfRunningJobs
+     */
+    public void printQueued(int numOfRunningJobs) {
+        mInputOutput.getOut().println(mBundle.getString("JobExecutor.queued").formatted(numOfRunningJobs));
+    }
+
+    /**
+     * Runs the job on a thread of the executor.
+     *
+     * @param executor
+     */
+    public void run(Executor executor) {
+        mAllowToCancel = () -> {
             mInterrupted = true;
-            mProgressHandle.finish();
-            ExecutorManager.getInstance().getJobExecutors().remove(mJob.getId());
-            mJob.setLocked(false);
-            jobEnded(OutputLineMode.WARNING, Dict.CANCELED.toString(), 99);
+            var executorThread = mExecutorThread;
+            if (executorThread != null) {
+                executorThread.interrupt();
+            }
+            if (mTaskExecutorService != null) {
+                mTaskExecutorService.shutdownNow();
+            }
 
+            //The executor thread ends the job once it has stopped
             return true;
         };
 
@@ -109,14 +226,21 @@ public class JobExecutor {
 
         mInterrupted = false;
         mStartTime = System.currentTimeMillis();
-        mProgressHandle = ProgressHandle.createHandle(mJob.getName(), allowToCancel);
+        mProgressHandle = ProgressHandle.createHandle(mJob.getName(), mAllowToCancel);
         mProgressHandle.start();
         mProgressHandle.switchToIndeterminate();
+        mJobContext = new Context(mInputOutput, mOutputHelper, mProgressHandle, null, new LinkedHashMap<>());
 
-        mExecutorThread = new Thread(() -> {
+        executor.execute(() -> {
+            mExecutorThread = Thread.currentThread();
             mOutputHelper.start();
             appendHistoryFile(getHistoryLine(mJob.getId(), Dict.STARTED.toString(), mDryRunIndicator));
             mOutputHelper.printSectionHeader(OutputLineMode.INFO, Dict.START.toString(), Dict.JOB.toLower(), mJob.getName());
+            mHeadless = Boolean.FALSE.equals(NbHelper.isGui().get());
+            mOutputLimit = mHeadless ? 0 : mOptions.getOutputLimit();
+            mRunLog = new RunLog(mJob.getId(), mDryRun);
+            mJobContext.setLogSegment(mRunLog.getSegment(mJob.getId(), mJob.getName()));
+            mInputOutput.getOut().println(mBundle.getString("JobExecutor.runLog").formatted(mRunLog.getDirectory()));
             if (IOFolding.isSupported(mInputOutput)) {
                 mMainFoldHandle = IOFolding.startFold(mInputOutput, true);
             }
@@ -125,6 +249,9 @@ public class JobExecutor {
                 for (var task : mJob.getTasks()) {
                     mInputOutput.getOut().println(" - %s".formatted(task.getName()));
                 }
+                if (mJob.getParallelTasks() > 1) {
+                    mInputOutput.getOut().println(mBundle.getString("JobEditor.parallelTasks.running").formatted(mJob.getParallelTasks()));
+                }
             }
             mInputOutput.getOut().println();
 
@@ -136,11 +263,12 @@ public class JobExecutor {
                 runTasks();
 
                 if (!mJob.getTasks().isEmpty()) {
-                    if (mNumOfFailedTasks == 0) {
+                    int numOfFailedTasks = mNumOfFailedTasks.get();
+                    if (numOfFailedTasks == 0) {
                         // run after last task - if all ok
                         run(jobExecuteSection.getAfterOk(), "JobEditor.runAfterOk");
                     } else {
-                        var s = (mNumOfFailedTasks == 1 ? Dict.TASK_FAILED.toString() : Dict.TASKS_FAILED.toString()).formatted(mNumOfFailedTasks);
+                        var s = (numOfFailedTasks == 1 ? Dict.TASK_FAILED.toString() : Dict.TASKS_FAILED.toString()).formatted(numOfFailedTasks);
                         mInputOutput.getErr().println(s);
 
                         // run after last task - if any failed
@@ -163,23 +291,56 @@ public class JobExecutor {
                 mInputOutput.getErr().println(String.format("\n\n%s", Dict.JOB_FAILED.toString()));
             }
 
-            mProgressHandle.finish();
-            ExecutorManager.getInstance().getJobExecutors().remove(mJob.getId());
-            mJob.setLocked(false);
-            if (!mGui && !Server.getInstance().isRunning()) {
-                SystemHelper.runLaterDelayed(500, () -> LifecycleManager.getDefault().exit());
+            if (mInterrupted) {
+                jobEnded(OutputLineMode.WARNING, Dict.CANCELED.toString(), 99);
             }
-        }, "JobExecutor");
 
-        mExecutorThread.start();
+            mRunLog.close();
+            mProgressHandle.finish();
+            mJob.setLocked(false);
+            ExecutorManager.getInstance().finished(this);
+            mFuture.complete(mExitCode);
+            mExecutorThread = null;
+            Thread.interrupted();
+        });
     }
 
     private void appendHistoryFile(String string) {
-        try {
-            FileUtils.write(mStorageManager.getHistoryFile(), string, Charset.defaultCharset(), true);
-        } catch (IOException ex) {
-            Exceptions.printStackTrace(ex);
+        mHistoryWriter.append(string);
+    }
+
+    private Context createTaskContext(Task task, boolean parallel) {
+        if (!parallel) {
+            FoldHandle foldHandle = null;
+            if (IOFolding.isSupported(mInputOutput)) {
+                foldHandle = mMainFoldHandle.startFold(true);
+            }
+
+            var context = new Context(mInputOutput, mOutputHelper, mProgressHandle, foldHandle, task.getEnvMap());
+            context.setLogSegment(mRunLog.getSegment(task.getId(), task.getName()));
+
+            return context;
         }
+
+        var title = "%s: %s".formatted(mJob.getName(), task.getName());
+        var inputOutput = NbHelper.getDefaultOrTrivialIOProvider().getIO(title, false);
+        var outputHelper = new OutputHelper(title, inputOutput, mDryRun);
+        outputHelper.reset();
+        outputHelper.start();
+
+        FoldHandle foldHandle = null;
+        if (IOFolding.isSupported(inputOutput)) {
+            foldHandle = IOFolding.startFold(inputOutput, true);
+        }
+
+        var progressHandle = ProgressHandle.createHandle(title, mAllowToCancel);
+        progressHandle.start();
+        progressHandle.switchToIndeterminate();
+
+        var context = new Context(inputOutput, outputHelper, progressHandle, foldHandle, task.getEnvMap());
+        context.setLogSegment(mRunLog.getSegment(task.getId(), task.getName()));
+
+        return context;
     }
 
     private String getHistoryLine(String id, String status, String dryRunIndicator) {
@@ -197,7 +358,75 @@ public class JobExecutor {
         return bundle.containsKey(key) ? bundle.getString(key) : Dict.SYSTEM_CODE.toString().formatted(key);
     }
 
+    /**
+     * Plans the shards of a task.
+     *
+     * @param context
+     * @param task
+     * @return the rsync arguments of every shard, or only the arguments of the
+     * task if it can not be sharded
+     */
+    private List<RsyncCommand> getShardCommands(Context context, Task task) {
+        var inputOutput = context.getInputOutput();
+        var source = task.getSource();
+        var unsharded = List.of(new RsyncCommand(task.getCommand(), 1));
+        List<ShardPlanner.Shard> shards;
+
+        try {
+            var sourcePath = Path.of(source);
+            if (!Files.isDirectory(sourcePath)) {
+                inputOutput.getErr().println(mBundle.getString("JobExecutor.shardNotLocal").formatted(source));
+                return unsharded;
+            }
+            inputOutput.getOut().println(mBundle.getString("JobExecutor.shardPlanning").formatted(source));
+            shards = new ShardPlanner(sourcePath, task.getShardDepth(), task.getShards(), task.isShardByFileCount()).plan();
+        } catch (IOException | InvalidPathException ex) {
+            inputOutput.getErr().println(ex);
+            return unsharded;
+        }
+
+        if (shards.size() < 2) {
+            return unsharded;
+        }
+
+        // Let --relative recreate the entries below the transfer root, marked by /./
+        String transferRoot;
+        if (StringUtils.endsWithAny(source, "/", File.separator)) {
+            transferRoot = source + "." + File.separator;
+        } else {
+            var sourcePath = Path.of(source).toAbsolutePath();
+            transferRoot = "%s%s.%s%s%s".formatted(sourcePath.getParent(), File.separator, File.separator, sourcePath.getFileName(), File.separator);
+        }
+
+        var commands = new ArrayList<RsyncCommand>();
+        for (var shard : shards) {
+            var sources = shard.getEntries().stream()
+                    .map(entry -> task.getPath(transferRoot + entry.toString()))
+                    .toList();
+            var arguments = new ArrayList<String>();
+            arguments.add("--relative");
+            arguments.addAll(task.getCommand(sources));
+            commands.add(new RsyncCommand(arguments, shard.getWeight()));
+        }
+
+        inputOutput.getOut().println(mBundle.getString("JobExecutor.shardRunning").formatted(shards.size()));
+        if (commands.getFirst().arguments().stream().anyMatch(arg -> StringUtils.startsWith(arg, "--delete"))) {
+            inputOutput.getErr().println(mBundle.getString("JobExecutor.shardDelete"));
+        }
+
+        return commands;
+    }
+
+    /**
+     * Records the end of the job, once, on the executor thread.
+     */
     private void jobEnded(OutputLineMode outputLineMode, String action, int exitCode) {
+        if (mJobEnded) {
+            return;
+        }
+
+        mJobEnded = true;
+        mExitCode = exitCode == 0 && mNumOfFailedTasks.get() > 0 ? 1 : exitCode;
         if (IOFolding.isSupported(mInputOutput)) {
             var nestedFold = mMainFoldHandle.getCurrentNestedFold();
             if (nestedFold != null) {
@@ -206,18 +435,19 @@ public class JobExecutor {
             mMainFoldHandle.finish();
         }
         appendHistoryFile(getHistoryLine(mJob.getId(), action, mDryRunIndicator));
+        mHistoryWriter.flush();
+        mHistoryStore.add(new Run(mJob.getId(), mStartTime, System.currentTimeMillis(), mExitCode, mDryRun, action));
         if (!mDryRun) {
             var job = mStorageManager.getJobManager().getById(mJob.getId());
             if (job != null) {//Might be null if started as task only
                 job.setLastStarted(mStartTime);
                 job.setLastRun(System.currentTimeMillis());
-                job.setLastRunExitCode(exitCode);
-                Runnable saver = () -> StorageManager.save();
-                if (Server.getInstance().isRunning() || Boolean.FALSE.equals(NbHelper.isGui().get())) {
-                    saver.run();
-                } else {
+                job.setLastRunExitCode(mExitCode);
+                mStateStore.put(job);
+                if (!Server.getInstance().isRunning() && !Boolean.FALSE.equals(NbHelper.isGui().get())) {
                     FxHelper.runLater(() -> {
-                        saver.run();
+                        mStorageManager.getJobManager().refresh();
+                        mStorageManager.getTaskManager().refresh();
                         NbRsync.getInstance().getGlobalState().put(NbRsync.GSC_LAST_JOB_ID, job.getId());
                     });
                 }
@@ -229,14 +459,15 @@ public class JobExecutor {
         NbRsync.getInstance().getGlobalState().put(NbRsync.GSC_TIMER_STOP, System.currentTimeMillis());
     }
 
-    private boolean run(String command, boolean stopOnError, String description) {
-        mOutputHelper.printSectionHeader(OutputLineMode.INFO, Dict.START.toString(), "'%s':".formatted(description), command);
+    private boolean run(Context context, String command, boolean stopOnError, String description) {
+        var outputHelper = context.getOutputHelper();
+        outputHelper.printSectionHeader(OutputLineMode.INFO, Dict.START.toString(), "'%s':".formatted(description), command);
         boolean success = false;
 
         if (new File(command).isFile()) {
             var commandLine = new ArrayList<String>();
             commandLine.add(command);
-            var result = runProcess(commandLine, false);
+            var result = runProcess(context, commandLine, false);
 
             String status;
             if (result == 0) {
@@ -248,12 +479,12 @@ public class JobExecutor {
 
             if (!mInterrupted) {
                 var outputLineMode = success ? OutputLineMode.OK : OutputLineMode.WARNING;
-                mOutputHelper.printSectionHeader(outputLineMode, Dict.DONE.toString(), getLogLine(status, description), null);
+                outputHelper.printSectionHeader(outputLineMode, Dict.DONE.toString(), getLogLine(status, description), null);
             }
 
             if (stopOnError && result != 0) {
                 var s = String.format("%s: exitValue=%d", Dict.FAILED.toString(), result);
-                mInputOutput.getErr().println(s);
+                context.getInputOutput().getErr().println(s);
 //                throw new ExecutionFailedException(string);
             }
         } else {
@@ -261,7 +492,7 @@ public class JobExecutor {
             if (stopOnError) {
                 success = false;
             } else {
-                mInputOutput.getErr().println(s);
+                context.getInputOutput().getErr().println(s);
             }
         }
 
@@ -271,78 +502,117 @@ public class JobExecutor {
     private void run(ExecuteItem executeItem, String key) throws IOException, InterruptedException, ExecutionFailedException {
         var command = executeItem.getCommand();
         if (!mInterrupted && executeItem.isEnabled() && StringUtils.isNotEmpty(command)) {
-            run(command, executeItem.isHaltOnError(), mBundle.getString(key));
+            run(mJobContext, command, executeItem.isHaltOnError(), mBundle.getString(key));
         }
     }
 
-    private int runProcess(List<String> command, boolean rsyncProcess) {
-        if (mInterrupted) {
+    private int runHeadlessProcess(Context context, List<String> command, Map<String, String> environment, OutputParser outputParser) {
+        var inputOutput = context.getInputOutput();
+        var logSegment = context.getLogSegment();
+        var processBuilder = new java.lang.ProcessBuilder(command);
+        processBuilder.environment().putAll(environment);
+        logSegment.println("$ %s".formatted(String.join(" ", command)), false);
+
+        Process process;
+        try {
+            process = processBuilder.start();
+        } catch (IOException ex) {
+            inputOutput.getErr().println(ex);
+            logSegment.println(ex.toString(), true);
+
             return -1;
         }
 
-        mProgressHandle.switchToIndeterminate();
-        mIndeterminate = true;
+        var threadFactory = ExecutorManager.getInstance().newThreadFactory("JobExecutor.Process");
+        var outThread = threadFactory.newThread(() -> readLines(process.getInputStream(), line -> {
+            try {
+                var lineKind = outputParser.parse(line);
+                if (lineKind != LineKind.PROGRESS) {
+                    logSegment.println(line, false);
+                }
+                if (lineKind == LineKind.SUMMARY) {
+                    inputOutput.getOut().println(line);
+                }
+            } catch (Exception e) {
+                logSegment.println(e.toString(), true);
+            }
+        }));
+        var errThread = threadFactory.newThread(() -> readLines(process.getErrorStream(), line -> {
+            logSegment.println(line, true);
+            inputOutput.getErr().println(line);
+        }));
+        outThread.start();
+        errThread.start();
+
+        try {
+            int exitValue = process.waitFor();
+            outThread.join();
+            errThread.join();
+
+            return exitValue;
+        } catch (InterruptedException ex) {
+            mInterrupted = true;
+            process.descendants().forEach(processHandle -> processHandle.destroy());
+            process.destroy();
+        }
 
+        return -1;
+    }
+
+    private int runOutputWindowProcess(Context context, List<String> command, Map<String, String> environment, OutputParser outputParser, boolean rsyncProcess) {
+        var inputOutput = context.getInputOutput();
         var processBuilder = org.netbeans.api.extexecution.base.ProcessBuilder.getLocal();
         processBuilder.setExecutable(command.getFirst());
         if (command.size() > 1) {
             processBuilder.setArguments(command.subList(1, command.size()));
         }
 
-        List.of(mJob.getEnvMap(), mCurrentTaskEnvironmentMap).forEach(map -> {
-            map.entrySet().forEach(entry -> {
-                processBuilder.getEnvironment().setVariable(entry.getKey(), entry.getValue());
-            });
+        environment.entrySet().forEach(entry -> {
+            processBuilder.getEnvironment().setVariable(entry.getKey(), entry.getValue());
         });
 
+        var logSegment = context.getLogSegment();
+        logSegment.println("$ %s".formatted(String.join(" ", command)), false);
+        var lineRing = mOutputLimit > 0 ? mInputOutputToLineRing.computeIfAbsent(inputOutput, k -> new LineRing(mOutputLimit)) : null;
         var outLineConvertorFactory = new ExecutionDescriptor.LineConvertorFactory() {
-            private String mPrevLine;
-            private final Progress mProgress = new Progress();
-
             @Override
             public LineConvertor newLineConvertor() {
                 return (LineConvertor) line -> {
                     var lines = new ArrayList<ConvertedLine>();
 
                     try {
-                        if (StringUtils.isBlank(line)) {
-                            lines.add(ConvertedLine.forText("", null));
-                        } else if (StringUtils.startsWith(line, "*deleting   ") || StringUtils.startsWith(line, "deleting ")) {
-                            mInputOutput.getErr().println(line);
-                        } else if (mProgress.parse(line)) {
-                            if (mIndeterminate) {
-                                mIndeterminate = false;
-                                mProgressHandle.switchToDeterminate(100);
+                        var lineKind = outputParser.parse(line);
+                        if (lineKind != LineKind.PROGRESS) {
+                            logSegment.println(line, false);
+                        }
+
+                        switch (lineKind) {
+                            case BLANK -> {
+                                if (!rsyncProcess) {
+                                    lines.add(ConvertedLine.forText("", null));
+                                }
+                            }
+                            case DELETION ->
+                                inputOutput.getErr().println(line);
+                            case SUMMARY -> {
+                                if (lineRing != null) {
+                                    lineRing.drain(text -> lines.add(ConvertedLine.forText(text, null)));
+                                }
+                                lines.add(ConvertedLine.forText("", null));
+                                lines.add(ConvertedLine.forText(line, null));
+                            }
+                            case TEXT -> {
+                                if (lineRing == null || lineRing.offer(line)) {
+                                    lines.add(ConvertedLine.forText(line, null));
+                                }
+                            }
+                            default -> {
                             }
-                            mProgressHandle.progress(mProgress.getStep());
-                            var currentProgressString = new StringBuilder(mProgress.toString()).append(" ").append(mPrevLine).toString();
-                            mProgressHandle.progress(currentProgressString);
-                            mStatusDisplayer.setStatusText(currentProgressString);
-                        } else {
-                            lines.add(ConvertedLine.forText(line, null));
-                            mPrevLine = line;
                         }
                     } catch (Exception e) {
                         lines.add(ConvertedLine.forText(e.toString(), null));
                     }
 
-                    if (StringUtils.isBlank(line) && rsyncProcess) {
-                        lines.clear();
-                    }
-
-                    var summary = StringUtils.containsIgnoreCase(line, "sent")
-                            && StringUtils.containsIgnoreCase(line, "bytes")
-                            && StringUtils.containsIgnoreCase(line, "received");
-
-                    if (summary) {
-                        lines.add(0, ConvertedLine.forText("", null));
-                    }
-
-                    if (StringUtils.contains(line, "(xfr#")) {
-                        mProgressHandle.switchToIndeterminate();
-                        mIndeterminate = true;
-                    }
-
                     return lines;
                 };
             }
@@ -350,11 +620,15 @@ public class JobExecutor {
 
         var descriptor = new ExecutionDescriptor()
                 .frontWindow(true)
-                .inputOutput(mInputOutput)
+                .inputOutput(inputOutput)
                 .noReset(true)
                 .errLineBased(true)
                 .outLineBased(true)
                 .outConvertorFactory(outLineConvertorFactory)
+                .errConvertorFactory(() -> line -> {
+                    logSegment.println(line, true);
+                    return List.of(ConvertedLine.forText(line, null));
+                })
                 .showProgress(false);
 
         var service = ExecutionService.newService(
@@ -374,98 +648,305 @@ public class JobExecutor {
         } catch (ExecutionException ex) {
             mInterrupted = true;
             task.cancel(true);
-            mInputOutput.getErr().println(ex);
+            inputOutput.getErr().println(ex);
             Exceptions.printStackTrace(ex);
+        } finally {
+            if (lineRing != null) {
+                lineRing.drain(text -> inputOutput.getOut().println(text));
+            }
         }
 
         return -1;
     }
 
-    private int runRsync(Task task) {
+    private int runProcess(Context context, List<String> command, boolean rsyncProcess) {
+        if (mInterrupted) {
+            return -1;
+        }
+
+        var progressHandle = context.getProgressHandle();
+        if (!context.isShard()) {
+            progressHandle.switchToIndeterminate();
+        }
+
+        var environment = new LinkedHashMap<String, String>(mJob.getEnvMap());
+        environment.putAll(context.getEnvironmentMap());
+
+        //the total progress of progress2 is not interrupted by the per file xfr# lines
+        boolean progress2 = rsyncProcess && command.stream().anyMatch(arg -> StringUtils.startsWith(arg, "--info=") && StringUtils.contains(arg, "progress2"));
+        //the progress of a shard is reported by its task when done
+        var progressPublisher = new ProgressPublisher(progressHandle, !context.isShard(), text -> mProgressText = text);
+        var outputParser = new OutputParser(context, rsyncProcess, progress2, progressPublisher);
+
+        try {
+            if (mHeadless) {
+                return runHeadlessProcess(context, command, environment, outputParser);
+            } else {
+                return runOutputWindowProcess(context, command, environment, outputParser, rsyncProcess);
+            }
+        } finally {
+            progressPublisher.close();
+        }
+    }
+
+    private int runRsync(Context context, Task task, List<String> taskCommand) {
         var command = new ArrayList<String>();
         command.add(mOptions.getRsyncPath());
         if (mDryRun) {
             command.add("--dry-run");
         }
-        command.addAll(task.getCommand());
+        command.addAll(taskCommand);
         var s = String.format("%s\n", StringUtils.join(command, " "));
-        mInputOutput.getOut().println(s);
+        var resource = ResourceLimiter.getResource(task);
+        Runnable waitListener = () -> {
+            context.getInputOutput().getOut().println(mBundle.getString("JobExecutor.resourceWaiting").formatted(resource));
+        };
+
+        try (var permit = ResourceLimiter.getInstance().acquire(resource, waitListener)) {
+            if (permit.getWaitTime() > 0) {
+                var waited = mBundle.getString("JobExecutor.resourceWaited").formatted(DurationFormatUtils.formatDuration(permit.getWaitTime(), "HH:mm:ss"), resource);
+                context.getInputOutput().getOut().println(waited);
+                appendHistoryFile(getHistoryLine(task.getId(), waited, ""));
+            }
+            context.getInputOutput().getOut().println(s);
 
-        return runProcess(command, true);
+            return runProcess(context, command, true);
+        } catch (InterruptedException ex) {
+            mInterrupted = true;
+
+            return -1;
+        }
     }
 
-    private boolean runTask(Task task) {
-        if (mInterrupted) {
+    /**
+     * Runs the commands of an attempt with a manifest of its own.
+     *
+     * @param context
+     * @param task
+     * @param dryRunIndicator
+     * @param commands all commands of the task
+     * @param indexes of the commands to run
+     * @param exitValues updated with the exit values of the commands run
+     */
+    private void runRsyncAttempt(Context context, Task task, String dryRunIndicator, List<RsyncCommand> commands, List<Integer> indexes, int[] exitValues) {
+        try (var manifest = new Manifest(task.getId(), mJob.getId(), !dryRunIndicator.isEmpty())) {
+            context.setManifest(manifest);
+            if (commands.size() == 1) {
+                exitValues[0] = runRsync(context, task, commands.getFirst().arguments());
+            } else {
+                runShards(context, task, commands, indexes, exitValues);
+            }
+            context.setManifest(null);
+            context.getInputOutput().getOut().println(mBundle.getString("JobExecutor.manifest").formatted(
+                    manifest.getCreated(),
+                    manifest.getUpdated(),
+                    manifest.getDeleted(),
+                    manifest.getAttributes(),
+                    FileUtils.byteCountToDisplaySize(manifest.getBytes())
+            ));
+        }
+    }
+
+    /**
+     * Runs rsync again while it fails with an exit code that the task retries,
+     * waiting an exponentially growing and jittered delay in between.
+     * <p>
+     * Only the failed shards of a sharded task are run again.
+     */
+    private int runRsyncWithRetries(Context context, Task task, String dryRunIndicator) {
+        var commands = task.isSharded() ? getShardCommands(context, task) : List.of(new RsyncCommand(task.getCommand(), 1));
+        var exitValues = new int[commands.size()];
+        var indexes = IntStream.range(0, commands.size()).boxed().toList();
+
+        long attemptStarted = System.currentTimeMillis();
+        runRsyncAttempt(context, task, dryRunIndicator, commands, indexes, exitValues);
+
+        for (int attempt = 1; attempt <= task.getRetryAttempts() && !mInterrupted; attempt++) {
+            indexes = IntStream.range(0, commands.size()).filter(i -> task.isRetryExitCode(exitValues[i])).boxed().toList();
+            if (indexes.isEmpty()) {
+                break;
+            }
+
+            int exitValue = exitValues[indexes.getFirst()];
+            long delay = Math.min(MAX_RETRY_DELAY_MILLIS, task.getRetryDelay() * 1000L << Math.min(attempt - 1, 16));
+            delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+
+            var retrying = mBundle.getString("JobExecutor.retrying").formatted(
+                    exitValue,
+                    getRsyncErrorCode(exitValue),
+                    attempt,
+                    task.getRetryAttempts(),
+                    DurationFormatUtils.formatDuration(delay, "HH:mm:ss")
+            );
+            context.getOutputHelper().printSectionHeader(OutputLineMode.WARNING, Dict.DONE.toString(), "rsync", retrying);
+            context.getLogSegment().println(retrying, true);
+            appendHistoryFile(getHistoryLine(task.getId(), retrying, dryRunIndicator));
+            mHistoryStore.add(new Run(task.getId(), attemptStarted, System.currentTimeMillis(), exitValue, mDryRun, retrying));
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                mInterrupted = true;
+                break;
+            }
+
+            context.resetBytesPerSecond();
+            attemptStarted = System.currentTimeMillis();
+            runRsyncAttempt(context, task, dryRunIndicator, commands, indexes, exitValues);
+        }
+
+        for (var exitValue : exitValues) {
+            if (exitValue != 0) {
+                return exitValue;
+            }
+        }
+
+        return 0;
+    }
+
+    private void runShards(Context context, Task task, List<RsyncCommand> commands, List<Integer> indexes, int[] exitValues) {
+        long totalWeight = indexes.stream().mapToLong(index -> commands.get(index).weight()).sum();
+        var progressHandle = context.getProgressHandle();
+        progressHandle.switchToDeterminate(100);
+
+        var shardExecutorService = Executors.newFixedThreadPool(indexes.size(), ExecutorManager.getInstance().newThreadFactory("JobExecutor.Shard"));
+        var completionService = new ExecutorCompletionService<Integer>(shardExecutorService);
+        var futureToIndex = new HashMap<Future<Integer>, Integer>();
+
+        for (var index : indexes) {
+            var arguments = commands.get(index).arguments();
+            var shardContext = context.createShardContext();
+            futureToIndex.put(completionService.submit(() -> runRsync(shardContext, task, arguments)), index);
+        }
+
+        try {
+            long completedWeight = 0;
+            for (int i = 0; i < indexes.size(); i++) {
+                var future = completionService.take();
+                int index = futureToIndex.get(future);
+                try {
+                    exitValues[index] = future.get();
+                } catch (ExecutionException ex) {
+                    exitValues[index] = -1;
+                    Exceptions.printStackTrace(ex);
+                }
+
+                completedWeight += commands.get(index).weight();
+                progressHandle.progress((int) (completedWeight * 100 / Math.max(1, totalWeight)));
+                var outputLineMode = exitValues[index] == 0 ? OutputLineMode.OK : OutputLineMode.WARNING;
+                context.getOutputHelper().printSectionHeader(outputLineMode, Dict.DONE.toString(), "rsync %d/%d".formatted(index + 1, commands.size()), getRsyncErrorCode(exitValues[index]));
+            }
+        } catch (InterruptedException ex) {
+            mInterrupted = true;
+            indexes.forEach(index -> exitValues[index] = -1);
+        } finally {
+            shardExecutorService.shutdownNow();
+        }
+    }
+
+    private boolean runTask(Task task, boolean parallel) {
+        if (mInterrupted || mTasksHalted) {
             return false;
         }
 
+        var dryRunIndicator = mDryRunIndicator;
         if (mDryRun || task.isDryRun()) {
-            mDryRunIndicator = String.format(" (%s)", Dict.DRY_RUN.toString());
+            dryRunIndicator = String.format(" (%s)", Dict.DRY_RUN.toString());
         }
 
-        appendHistoryFile(getHistoryLine(task.getId(), Dict.STARTED.toString(), mDryRunIndicator));
+        appendHistoryFile(getHistoryLine(task.getId(), Dict.STARTED.toString(), dryRunIndicator));
 
-        mOutputHelper.printSectionHeader(OutputLineMode.INFO, Dict.START.toString(), Dict.TASK.toLower(), task.getName());
-        FoldHandle foldHandle = null;
-        if (IOFolding.isSupported(mInputOutput)) {
-            foldHandle = mMainFoldHandle.startFold(true);
+        if (parallel) {
+            synchronized (mOutputHelper) {
+                mOutputHelper.printSectionHeader(OutputLineMode.INFO, Dict.START.toString(), Dict.TASK.toLower(), task.getName());
+            }
         }
 
-        task.setLastStarted(System.currentTimeMillis());
-        mTaskFailed = false;
-        mCurrentTaskEnvironmentMap = task.getEnvMap();
+        var context = createTaskContext(task, parallel);
+        var outputHelper = context.getOutputHelper();
+        outputHelper.printSectionHeader(OutputLineMode.INFO, Dict.START.toString(), Dict.TASK.toLower(), task.getName());
+
+        long taskStarted = System.currentTimeMillis();
+        task.setLastStarted(taskStarted);
         var taskExecuteSection = task.getExecuteSection();
 
-        boolean doNextStep = runTaskStep(taskExecuteSection.getBefore(), "TaskEditor.runBefore");
+        boolean doNextStep = runTaskStep(context, taskExecuteSection.getBefore(), "TaskEditor.runBefore");
+        var throughputIndicator = "";
+        int exitValue = -1;
 
         if (doNextStep) {
-            int exitValue = runRsync(task);
+            exitValue = runRsyncWithRetries(context, task, dryRunIndicator);
             if (!mDryRun) {
                 task.setLastRun(System.currentTimeMillis());
                 task.setLastRunExitCode(exitValue);
             }
             boolean rsyncSuccess = exitValue == 0;
-            mTaskFailed = !rsyncSuccess || mTaskFailed;
+            context.setFailed(!rsyncSuccess || context.isFailed());
             var outputLineMode = rsyncSuccess ? OutputLineMode.OK : OutputLineMode.WARNING;
-            mOutputHelper.printSectionHeader(outputLineMode, Dict.DONE.toString(), "rsync", getRsyncErrorCode(exitValue));
+            outputHelper.printSectionHeader(outputLineMode, Dict.DONE.toString(), "rsync", getRsyncErrorCode(exitValue));
+
+            long bytesPerSecond = context.getBytesPerSecond();
+            if (bytesPerSecond >= 0) {
+                throughputIndicator = " (%s/s)".formatted(FileUtils.byteCountToDisplaySize(bytesPerSecond));
+                context.getInputOutput().getOut().println(mBundle.getString("JobExecutor.throughput").formatted(FileUtils.byteCountToDisplaySize(bytesPerSecond)));
+                if (!mDryRun) {
+                    task.setLastRunBytesPerSecond(bytesPerSecond);
+                }
+            }
+
+            if (!mDryRun) {
+                mStateStore.put(task);
+            }
 
             if (rsyncSuccess) {
-                doNextStep = runTaskStep(taskExecuteSection.getAfterOk(), "TaskEditor.runAfterOk");
+                doNextStep = runTaskStep(context, taskExecuteSection.getAfterOk(), "TaskEditor.runAfterOk");
             } else {
-                doNextStep = runTaskStep(taskExecuteSection.getAfterFail(), "TaskEditor.runAfterFail");
+                doNextStep = runTaskStep(context, taskExecuteSection.getAfterFail(), "TaskEditor.runAfterFail");
             }
         }
 
         if (doNextStep) {
-            runTaskStep(taskExecuteSection.getAfter(), "TaskEditor.runAfter");
+            runTaskStep(context, taskExecuteSection.getAfter(), "TaskEditor.runAfter");
         }
 
-        if (mTaskFailed) {
-            mNumOfFailedTasks++;
+        boolean taskFailed = context.isFailed();
+        if (taskFailed) {
+            mNumOfFailedTasks.incrementAndGet();
         }
 
-        appendHistoryFile(getHistoryLine(task.getId(), Dict.DONE.toString(), mDryRunIndicator));
+        appendHistoryFile(getHistoryLine(task.getId(), Dict.DONE.toString() + throughputIndicator, dryRunIndicator));
+        int runExitCode = taskFailed && exitValue == 0 ? 1 : exitValue;
+        mHistoryStore.add(new Run(task.getId(), taskStarted, System.currentTimeMillis(), runExitCode, mDryRun, taskFailed ? Dict.FAILED.toString() : Dict.DONE.toString()));
 
-        var outputLineMode = mTaskFailed ? OutputLineMode.OK : OutputLineMode.WARNING;
-        mOutputHelper.printSectionHeader(outputLineMode, Dict.DONE.toString(), Dict.TASK.toLower(), task.getName());
-        //TODO fix color
-        if (foldHandle != null) {
-            foldHandle.silentFinish();
+        var outputLineMode = taskFailed ? OutputLineMode.WARNING : OutputLineMode.OK;
+        outputHelper.printSectionHeader(outputLineMode, Dict.DONE.toString(), Dict.TASK.toLower(), task.getName());
+        if (context.getFoldHandle() != null) {
+            context.getFoldHandle().silentFinish();
         }
 
-        boolean doNextTask = !(mTaskFailed && taskExecuteSection.isJobHaltOnError());
+        if (parallel) {
+            outputHelper.printSummary(taskFailed ? OutputLineMode.WARNING : OutputLineMode.OK, Dict.DONE.toString(), Dict.TASK.toString());
+            context.getProgressHandle().finish();
+            synchronized (mOutputHelper) {
+                mOutputHelper.printSectionHeader(taskFailed ? OutputLineMode.WARNING : OutputLineMode.OK, Dict.DONE.toString(), Dict.TASK.toLower(), task.getName());
+            }
+        }
+
+        if (taskFailed && taskExecuteSection.isJobHaltOnError()) {
+            mTasksHalted = true;
+        }
 
-        return doNextTask;
+        return !taskFailed;
     }
 
-    private boolean runTaskStep(ExecuteItem executeItem, String key) {
+    private boolean runTaskStep(Context context, ExecuteItem executeItem, String key) {
         boolean doNextStep = false;
 
 //        try {
         var command = executeItem.getCommand();
         if (executeItem.isEnabled() && StringUtils.isNotEmpty(command)) {
-            if (!run(command, executeItem.isHaltOnError(), mBundle.getString(key))) {
-                mTaskFailed = true;
+            if (!run(context, command, executeItem.isHaltOnError(), mBundle.getString(key))) {
+                context.setFailed(true);
             }
         }
         doNextStep = true;
@@ -477,16 +958,299 @@ public class JobExecutor {
         return doNextStep;
     }
 
-    private void runTasks() throws InterruptedException {
+    private void runTasks() {
         if (mInterrupted) {
             return;
         }
 
-        for (var task : mJob.getTasks()) {
-            if (!runTask(task)) {
-                break;
+        var tasks = mJob.getTasks();
+        int numOfThreads = Math.min(mJob.getParallelTasks(), tasks.size());
+        if (numOfThreads == 0) {
+            return;
+        }
+
+        boolean parallel = numOfThreads > 1;
+        var taskGraph = new TaskGraph(mJob);
+        for (var task : taskGraph.getCycle()) {
+            mInputOutput.getErr().println(mBundle.getString("JobExecutor.dependencyCycle").formatted(task.getName()));
+        }
+
+        mTaskExecutorService = Executors.newFixedThreadPool(numOfThreads, ExecutorManager.getInstance().newThreadFactory("JobExecutor.Task"));
+        var completionService = new ExecutorCompletionService<Boolean>(mTaskExecutorService);
+        var futureToTask = new HashMap<Future<Boolean>, Task>();
+
+        try {
+            while (!mInterrupted) {
+                if (!mTasksHalted) {
+                    for (var task : taskGraph.pollReady()) {
+                        futureToTask.put(completionService.submit(() -> runTask(task, parallel)), task);
+                    }
+                }
+
+                if (futureToTask.isEmpty()) {
+                    break;
+                }
+
+                var future = completionService.take();
+                var task = futureToTask.remove(future);
+                boolean success;
+                try {
+                    success = future.get();
+                } catch (ExecutionException ex) {
+                    success = false;
+                    Exceptions.printStackTrace(ex);
+                }
+
+                var skippedTasks = taskGraph.setFinished(task, success);
+                if (mTasksHalted || mInterrupted) {
+                    continue;
+                }
+
+                for (var skippedTask : skippedTasks) {
+                    mNumOfFailedTasks.incrementAndGet();
+                    appendHistoryFile(getHistoryLine(skippedTask.getId(), mBundle.getString("JobExecutor.skipped"), mDryRunIndicator));
+                    long now = System.currentTimeMillis();
+                    mHistoryStore.add(new Run(skippedTask.getId(), now, now, -1, mDryRun, mBundle.getString("JobExecutor.skipped")));
+                    synchronized (mOutputHelper) {
+                        mInputOutput.getErr().println(mBundle.getString("JobExecutor.taskSkipped").formatted(skippedTask.getName(), task.getName()));
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            mInterrupted = true;
+        } finally {
+            mTaskExecutorService.shutdownNow();
+        }
+
+        if (!mInterrupted && !mTasksHalted) {
+            mNumOfFailedTasks.addAndGet(taskGraph.getWaiting().size());
+        }
+    }
+
+    private class Context {
+
+        private AtomicLong mBytesPerSecond = new AtomicLong(-1);
+        private final LinkedHashMap<String, String> mEnvironmentMap;
+        private boolean mFailed;
+        private final FoldHandle mFoldHandle;
+        private final InputOutput mInputOutput;
+        private RunLog.Segment mLogSegment;
+        private Manifest mManifest;
+        private final OutputHelper mOutputHelper;
+        private final ProgressHandle mProgressHandle;
+        private boolean mShard;
+
+        public Context(InputOutput inputOutput, OutputHelper outputHelper, ProgressHandle progressHandle, FoldHandle foldHandle, LinkedHashMap<String, String> environmentMap) {
+            mInputOutput = inputOutput;
+            mOutputHelper = outputHelper;
+            mProgressHandle = progressHandle;
+            mFoldHandle = foldHandle;
+            mEnvironmentMap = environmentMap;
+        }
+
+        /**
+         * A shard context shares the output of its task but leaves the
+         * progress bar to the task.
+         */
+        public Context createShardContext() {
+            var context = new Context(mInputOutput, mOutputHelper, mProgressHandle, null, mEnvironmentMap);
+            context.mShard = true;
+            context.mBytesPerSecond = mBytesPerSecond;
+            context.mManifest = mManifest;
+            context.mLogSegment = mLogSegment;
+
+            return context;
+        }
+
+        /**
+         * Adds the rate of an rsync process, the rates of parallel shards
+         * add up to the rate of their task.
+         */
+        public void addBytesPerSecond(long bytesPerSecond) {
+            mBytesPerSecond.accumulateAndGet(bytesPerSecond, (a, b) -> a < 0 ? b : a + b);
+        }
+
+        public long getBytesPerSecond() {
+            return mBytesPerSecond.get();
+        }
+
+        public LinkedHashMap<String, String> getEnvironmentMap() {
+            return mEnvironmentMap;
+        }
+
+        public FoldHandle getFoldHandle() {
+            return mFoldHandle;
+        }
+
+        public InputOutput getInputOutput() {
+            return mInputOutput;
+        }
+
+        public RunLog.Segment getLogSegment() {
+            return mLogSegment;
+        }
+
+        public Manifest getManifest() {
+            return mManifest;
+        }
+
+        public OutputHelper getOutputHelper() {
+            return mOutputHelper;
+        }
+
+        public ProgressHandle getProgressHandle() {
+            return mProgressHandle;
+        }
+
+        public boolean isFailed() {
+            return mFailed;
+        }
+
+        public boolean isShard() {
+            return mShard;
+        }
+
+        public void resetBytesPerSecond() {
+            mBytesPerSecond.set(-1);
+        }
+
+        public void setFailed(boolean failed) {
+            mFailed = failed;
+        }
+
+        public void setLogSegment(RunLog.Segment logSegment) {
+            mLogSegment = logSegment;
+        }
+
+        public void setManifest(Manifest manifest) {
+            mManifest = manifest;
+        }
+    }
+
+    private enum LineKind {
+        BLANK, DELETION, PROGRESS, SUMMARY, TEXT;
+    }
+
+    /**
+     * Lets the first lines of an output window through and keeps only the
+     * latest of the rest. One ring is shared by all tasks and shards that
+     * print to the same window during the job, so that the window holds at
+     * most the limit plus the kept lines of each drain. The full output is in
+     * the run log.
+     */
+    private class LineRing {
+
+        private final int mLimit;
+        private final ArrayDeque<String> mLines = new ArrayDeque<>();
+        private int mNumOfLines;
+        private long mNumOfOmitted;
+
+        public LineRing(int limit) {
+            mLimit = limit;
+        }
+
+        /**
+         * Prints the omitted count and the kept lines, and empties the ring.
+         *
+         * @param consumer
+         */
+        public synchronized void drain(Consumer<String> consumer) {
+            if (mNumOfOmitted > 0) {
+                consumer.accept(mBundle.getString("JobExecutor.outputOmitted").formatted(mNumOfOmitted, mRunLog.getDirectory()));
             }
+            mLines.forEach(consumer);
+            mLines.clear();
+            mNumOfOmitted = 0;
         }
+
+        /**
+         * @param line
+         * @return true if the line should be printed now
+         */
+        public synchronized boolean offer(String line) {
+            if (mNumOfLines < mLimit) {
+                mNumOfLines++;
+                return true;
+            }
+
+            if (mLines.size() == mLimit) {
+                mLines.poll();
+                mNumOfOmitted++;
+            }
+            mLines.add(line);
+
+            return false;
+        }
+    }
+
+    /**
+     * Parses the output lines of a process, feeding the progress, the
+     * throughput and the manifest of its context.
+     */
+    private class OutputParser {
+
+        private final Context mContext;
+        private final Manifest mManifest;
+        private String mPrevLine;
+        private final Progress mProgress = new Progress();
+        private final boolean mProgress2;
+        private final ProgressPublisher mProgressPublisher;
+        private final boolean mRsyncProcess;
+
+        public OutputParser(Context context, boolean rsyncProcess, boolean progress2, ProgressPublisher progressPublisher) {
+            mContext = context;
+            mRsyncProcess = rsyncProcess;
+            mProgress2 = progress2;
+            mProgressPublisher = progressPublisher;
+            mManifest = rsyncProcess ? context.getManifest() : null;
+        }
+
+        public LineKind parse(String line) {
+            var lineKind = LineKind.TEXT;
+
+            if (StringUtils.isBlank(line)) {
+                lineKind = LineKind.BLANK;
+            } else if (StringUtils.startsWith(line, "*deleting   ") || StringUtils.startsWith(line, "deleting ")) {
+                lineKind = LineKind.DELETION;
+                if (mManifest != null) {
+                    mManifest.parse(line);
+                }
+            } else if (mProgress.parse(line)) {
+                lineKind = LineKind.PROGRESS;
+                mProgressPublisher.update(line, mPrevLine);
+            } else {
+                mPrevLine = line;
+                if (mManifest != null) {
+                    mManifest.parse(line);
+                }
+            }
+
+            var summary = StringUtils.containsIgnoreCase(line, "sent")
+                    && StringUtils.containsIgnoreCase(line, "bytes")
+                    && StringUtils.containsIgnoreCase(line, "received");
+
+            if (summary) {
+                lineKind = LineKind.SUMMARY;
+                long bytesPerSecond = mProgress.parseBytesPerSecond(line);
+                if (mRsyncProcess && bytesPerSecond >= 0) {
+                    mContext.addBytesPerSecond(bytesPerSecond);
+                }
+                long bytes = mProgress.parseSentReceived(line);
+                if (mManifest != null && bytes >= 0) {
+                    mManifest.addBytes(bytes);
+                }
+            }
+
+            if (!mProgress2 && StringUtils.contains(line, "(xfr#")) {
+                mProgressPublisher.setIndeterminate();
+            }
+
+            return lineKind;
+        }
+    }
+
+    private record RsyncCommand(List<String> arguments, long weight) {
+
     }
 
     class ExecutionFailedException extends Exception {
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import se.trixon.nbrsync.core.job.Job;
+import se.trixon.nbrsync.core.task.Task;
+import static se.trixon.nbrsync.core.StorageManager.GSON;
+
+/**
+ * A write-ahead log of the profile changes that are not yet saved.
+ * <p>
+ * Every change is appended as a line
+ * <pre>
+ * P  job|task  json
+ * R  job|task  id
+ * </pre> and synced before the save is scheduled. The journal is replayed on
+ * load and cleared once the profiles are written.
+ *
+ * @author Patrik Karlström
+ */
+public class Journal {
+
+    private static final String JOB = "job";
+    private static final char PUT = 'P';
+    private static final char REMOVE = 'R';
+    private static final String TASK = "task";
+    private final StringBuilder mBuffer = new StringBuilder();
+    private final File mFile;
+
+    Journal(File file) {
+        mFile = file;
+    }
+
+    public void put(BaseItem item) {
+        var stringWriter = new StringWriter();
+        GSON.toJson(GSON.toJsonTree(item), new JsonWriter(stringWriter));
+        append(PUT, item, stringWriter.toString());
+    }
+
+    public void remove(BaseItem item) {
+        append(REMOVE, item, item.getId());
+    }
+
+    void clear() {
+        mBuffer.setLength(0);
+        FileUtils.deleteQuietly(mFile);
+    }
+
+    /**
+     * Writes and syncs the changes added since the last commit.
+     *
+     * @throws IOException
+     */
+    void commit() throws IOException {
+        if (mBuffer.isEmpty()) {
+            return;
+        }
+
+        try (var outputStream = new FileOutputStream(mFile, true)) {
+            outputStream.write(mBuffer.toString().getBytes(StandardCharsets.UTF_8));
+            outputStream.getFD().sync();
+        } finally {
+            mBuffer.setLength(0);
+        }
+    }
+
+    /**
+     * Applies the journaled changes to the maps.
+     *
+     * @param jobs
+     * @param tasks
+     * @return the number of changes applied
+     * @throws IOException
+     */
+    int replay(Map<String, Job> jobs, Map<String, Task> tasks) throws IOException {
+        if (!mFile.isFile()) {
+            return 0;
+        }
+
+        int numOfChanges = 0;
+        for (var line : Files.readAllLines(mFile.toPath(), StandardCharsets.UTF_8)) {
+            var elements = StringUtils.split(line, "\t", 3);
+            if (elements.length < 3 || elements[0].length() != 1) {
+                continue;
+            }
+
+            boolean job = JOB.equals(elements[1]);
+            try {
+                switch (elements[0].charAt(0)) {
+                    case PUT -> {
+                        if (job) {
+                            var item = GSON.fromJson(elements[2], Job.class);
+                            jobs.put(item.getId(), item);
+                        } else {
+                            var item = GSON.fromJson(elements[2], Task.class);
+                            tasks.put(item.getId(), item);
+                        }
+                    }
+                    case REMOVE -> {
+                        if (job) {
+                            jobs.remove(elements[2]);
+                        } else {
+                            tasks.remove(elements[2]);
+                        }
+                    }
+                    default -> {
+                        continue;
+                    }
+                }
+                numOfChanges++;
+            } catch (JsonParseException ex) {
+                //A torn last line from a crash, skip it
+            }
+        }
+
+        return numOfChanges;
+    }
+
+    private void append(char operation, BaseItem item, String value) {
+        mBuffer.append(operation).append('\t')
+                .append(item instanceof Job ? JOB : TASK).append('\t')
+                .append(value).append('\n');
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.openide.util.Exceptions;
+
+/**
+ * A per run manifest of the --itemize-changes output of a task.
+ * <p>
+ * Each change is written as a tab separated record
+ * <pre>
+ * kind  YX  attributes  path
+ * </pre> where kind is one of C (created), U (updated), A (attributes only)
+ * and D (deleted), followed by a trailer with the counts.
+ *
+ * @author Patrik Karlström
+ */
+public class Manifest implements AutoCloseable {
+
+    public static final char ATTRIBUTES = 'A';
+    public static final char CREATED = 'C';
+    public static final char DELETED = 'D';
+    public static final char UPDATED = 'U';
+    public static final String SUFFIX = ".manifest";
+    private static final String DELETING = "*deleting ";
+    private static final String FILE_TYPES = "fdLDS";
+    private static final int MAX_MANIFESTS_PER_TASK = 100;
+    private static final String TRAILER = "# ";
+    private static final String UPDATE_TYPES = "<>ch.";
+    private int mAttributes;
+    private long mBytes;
+    private int mCreated;
+    private int mDeleted;
+    private final File mFile;
+    private int mUpdated;
+    private BufferedWriter mWriter;
+
+    public static File getDirectory(String taskId) {
+        return new File(StorageManager.getInstance().getUserDirectory(), "var/manifest/%s".formatted(taskId));
+    }
+
+    /**
+     * @param taskId
+     * @return the manifests of a task, newest first
+     */
+    public static List<File> getManifests(String taskId) {
+        var files = getDirectory(taskId).listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return List.of();
+        }
+
+        return Arrays.stream(files)
+                .sorted(Comparator.comparing(File::getName).reversed())
+                .toList();
+    }
+
+    /**
+     * Reads the trailer of a manifest without reading the records.
+     *
+     * @param file
+     * @return the counts, e.g. "created=1 updated=2 deleted=0 attributes=0
+     * bytes=1234", or null
+     */
+    public static String getSummary(File file) {
+        try (var raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            var buffer = new byte[(int) Math.min(length, 256)];
+            raf.seek(length - buffer.length);
+            raf.readFully(buffer);
+            var tail = StringUtils.stripEnd(new String(buffer, StandardCharsets.UTF_8), null);
+            var line = StringUtils.substringAfterLast("\n" + tail, "\n");
+
+            return StringUtils.startsWith(line, TRAILER) ? line.substring(TRAILER.length()) : null;
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    public Manifest(String taskId, String jobId, boolean dryRun) {
+        var dir = getDirectory(taskId);
+        var timestamp = new SimpleDateFormat("yyyyMMdd'T'HHmmss.SSS").format(new Date());
+        mFile = new File(dir, timestamp + (dryRun ? "-dry-run" : "") + SUFFIX);
+
+        try {
+            FileUtils.forceMkdir(dir);
+            mWriter = Files.newBufferedWriter(mFile.toPath(), StandardCharsets.UTF_8);
+            mWriter.append("# job=").append(jobId).append(" task=").append(taskId).append(dryRun ? " dry-run" : "").append('\n');
+        } catch (IOException ex) {
+            mWriter = null;
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    /**
+     * Adds the bytes sent and received of an rsync summary line.
+     *
+     * @param bytes
+     */
+    public synchronized void addBytes(long bytes) {
+        mBytes += bytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mWriter == null) {
+            return;
+        }
+
+        try {
+            mWriter.append(TRAILER).append(getSummary()).append('\n');
+            mWriter.close();
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+        mWriter = null;
+
+        var manifests = getManifests(mFile.getParentFile().getName());
+        for (int i = MAX_MANIFESTS_PER_TASK; i < manifests.size(); i++) {
+            FileUtils.deleteQuietly(manifests.get(i));
+        }
+    }
+
+    public synchronized int getAttributes() {
+        return mAttributes;
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized int getCreated() {
+        return mCreated;
+    }
+
+    public synchronized int getDeleted() {
+        return mDeleted;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public synchronized String getSummary() {
+        return "created=%d updated=%d deleted=%d attributes=%d bytes=%d".formatted(mCreated, mUpdated, mDeleted, mAttributes, mBytes);
+    }
+
+    public synchronized int getUpdated() {
+        return mUpdated;
+    }
+
+    /**
+     * Records the line if it's an itemized change, like
+     * <pre>
+     * &gt;f.st...... path
+     * cd+++++++++ path/
+     * *deleting   path
+     * </pre>
+     *
+     * @param line
+     * @return true if the line was an itemized change
+     */
+    public boolean parse(CharSequence line) {
+        int length = line.length();
+        if (length < 4) {
+            return false;
+        }
+
+        if (startsWith(line, DELETING)) {
+            int start = DELETING.length();
+            while (start < length && line.charAt(start) == ' ') {
+                start++;
+            }
+            write(DELETED, line, 0, 0, 0, start, length);
+
+            return true;
+        }
+
+        char update = line.charAt(0);
+        char fileType = line.charAt(1);
+        if (UPDATE_TYPES.indexOf(update) < 0 || FILE_TYPES.indexOf(fileType) < 0) {
+            return false;
+        }
+
+        int attributesEnd = 2;
+        boolean created = true;
+        boolean changed = false;
+        while (attributesEnd < length && line.charAt(attributesEnd) != ' ') {
+            char c = line.charAt(attributesEnd);
+            if (c != '+') {
+                created = false;
+            }
+            if (c >= 'a' && c <= 'z') {
+                changed = true;
+            } else if (c != '.' && c != '+' && c != '?') {
+                return false;
+            }
+            attributesEnd++;
+        }
+
+        int attributeCount = attributesEnd - 2;
+        if (attributeCount < 7 || attributeCount > 11 || attributesEnd + 1 >= length) {
+            return false;
+        }
+
+        char kind;
+        if (update == '.') {
+            if (!changed) {
+                return true;
+            }
+            kind = ATTRIBUTES;
+        } else {
+            kind = created ? CREATED : UPDATED;
+        }
+
+        write(kind, line, 0, 2, attributesEnd, attributesEnd + 1, length);
+
+        return true;
+    }
+
+    private boolean startsWith(CharSequence line, String prefix) {
+        if (line.length() < prefix.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private synchronized void write(char kind, CharSequence line, int typeStart, int typeEnd, int attributesEnd, int pathStart, int pathEnd) {
+        switch (kind) {
+            case CREATED ->
+                mCreated++;
+            case UPDATED ->
+                mUpdated++;
+            case DELETED ->
+                mDeleted++;
+            default ->
+                mAttributes++;
+        }
+
+        if (mWriter == null) {
+            return;
+        }
+
+        try {
+            mWriter.append(kind).append('\t')
+                    .append(line, typeStart, typeEnd).append('\t')
+                    .append(line, typeEnd, attributesEnd).append('\t')
+                    .append(line, pathStart, pathEnd).append('\n');
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+            mWriter = null;
+        }
+    }
+}
@@ -15,71 +15,502 @@
  */
 package se.trixon.nbrsync.core;
 
-import org.apache.commons.lang3.StringUtils;
-
 /**
+ * Single pass parser of rsync progress lines like
+ * <pre>
+ *     32,768 100%   31.25MB/s    0:00:00 (xfr#1, to-chk=5/7)
+ * </pre> It does not allocate while parsing, the strings are only created
+ * when asked for.
  *
  * @author Patrik Karlström
  */
 public class Progress {
 
-    private String mEta;
-    private double mPercentage;
-    private String mSize;
-    private String mSpeed;
+    private long mBytes;
+    private long mBytesPerSecond;
+    private int mEndCheck;
+    private int mEndEta;
+    private int mEndSize;
+    private int mEndSpeed;
+    private int mEtaSeconds;
+    private CharSequence mLine;
+    private int mStartEta;
+    private int mStartSize;
+    private int mStartSpeed;
     private int mStep;
+    private int mToCheck;
+    private int mTotal;
     private boolean mValid;
+    private int mXfr;
 
     public Progress() {
     }
 
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public long getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
     public String getEta() {
-        return mEta;
+        return mValid ? mLine.subSequence(mStartEta, mEndEta).toString() : null;
+    }
+
+    /**
+     * @return the estimated remaining time in seconds, -1 if unknown
+     */
+    public int getEtaSeconds() {
+        return mEtaSeconds;
     }
 
     public double getPercentage() {
-        return mPercentage;
+        return mStep / 100.0;
     }
 
     public String getSize() {
-        return mSize;
+        return mValid ? mLine.subSequence(mStartSize, mEndSize).toString() : null;
     }
 
     public String getSpeed() {
-        return mSpeed;
+        return mValid ? mLine.subSequence(mStartSpeed, mEndSpeed).toString() : null;
     }
 
     public int getStep() {
         return mStep;
     }
 
+    /**
+     * @return the number of files left to check, from to-chk or ir-chk, -1
+     * if not present
+     */
+    public int getToCheck() {
+        return mToCheck;
+    }
+
+    /**
+     * @return the total number of files from to-chk or ir-chk, -1 if not
+     * present
+     */
+    public int getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * @return the number of transferred files from xfr#, -1 if not present
+     */
+    public int getXfr() {
+        return mXfr;
+    }
+
+    /**
+     * Parses the bytes/sec of the rsync summary line
+     * <pre>
+     * sent 1,234 bytes  received 35 bytes  2,538.00 bytes/sec
+     * </pre>
+     *
+     * @param line
+     * @return bytes per second or -1 if not a summary line
+     */
+    public long parseBytesPerSecond(CharSequence line) {
+        int end = indexOf(line, " bytes/sec", 0);
+        if (end < 0 || indexOf(line, "sent ", 0) < 0) {
+            return -1;
+        }
+
+        return parseNumberEndingAt(line, end);
+    }
+
+    /**
+     * Parses the bytes sent and received of the rsync summary line
+     * <pre>
+     * sent 12,345,678 bytes  received 1,234 bytes  2,538.00 bytes/sec
+     * </pre> The counts are integers, any separator in them is a grouping one.
+     *
+     * @param line
+     * @return the sum of sent and received bytes or -1 if not a summary line
+     */
+    public long parseSentReceived(CharSequence line) {
+        int sent = indexOf(line, "sent ", 0);
+        int received = indexOf(line, " received ", 0);
+        if (sent < 0 || received < 0) {
+            return -1;
+        }
+
+        int sentEnd = nextSpace(line, sent + 5);
+        int receivedEnd = nextSpace(line, received + 10);
+        long sentBytes = parseCountEndingAt(line, sentEnd);
+        long receivedBytes = parseCountEndingAt(line, receivedEnd);
+
+        return sentBytes < 0 || receivedBytes < 0 ? -1 : sentBytes + receivedBytes;
+    }
+
+    public boolean hasCheckCounters() {
+        return mValid && mEndCheck > 0;
+    }
+
     public boolean isValid() {
         return mValid;
     }
 
-    public boolean parse(String line) {
+    public boolean parse(CharSequence line) {
         mValid = false;
-        var elements = StringUtils.split(line);
+        mLine = line;
+        mXfr = -1;
+        mToCheck = -1;
+        mTotal = -1;
+        mEndCheck = 0;
+        int length = line.length();
 
-        if (elements.length >= 4
-                && elements[1].contains("%")
-                && elements[2].contains("/")
-                && elements[3].contains(":")) {
-            mSize = elements[0];
-            mStep = Integer.parseInt(elements[1].replace("%", ""));
-            mPercentage = mStep / 100.0;
-            mSpeed = elements[2];
-            mEta = elements[3];
+        // size
+        int i = skipSpaces(line, 0);
+        if (i == length || !isDigit(line.charAt(i))) {
+            return false;
+        }
+        mStartSize = i;
+        mEndSize = nextSpace(line, i);
+        if (!parseSize(line, mStartSize, mEndSize)) {
+            return false;
+        }
 
-            mValid = true;
+        // percentage
+        i = skipSpaces(line, mEndSize);
+        int end = nextSpace(line, i);
+        if (end - i < 2 || line.charAt(end - 1) != '%') {
+            return false;
         }
+        int step = parseInt(line, i, end - 1);
+        if (step < 0) {
+            return false;
+        }
+        mStep = step;
 
-        return mValid;
+        // speed
+        mStartSpeed = skipSpaces(line, end);
+        mEndSpeed = nextSpace(line, mStartSpeed);
+        if (!parseSpeed(line, mStartSpeed, mEndSpeed)) {
+            return false;
+        }
+
+        // eta
+        mStartEta = skipSpaces(line, mEndSpeed);
+        mEndEta = nextSpace(line, mStartEta);
+        if (!parseEta(line, mStartEta, mEndEta)) {
+            return false;
+        }
+
+        mValid = true;
+        parseCounters(line, mEndEta);
+
+        return true;
     }
 
     @Override
     public String toString() {
-        return new StringBuilder().append(mSize).append("   ").append(mSpeed).append("   ").append(mEta).toString();
-//        return String.format("%s   %s   %s", mSize, mSpeed, mEta);
+        if (!mValid) {
+            return "";
+        }
+
+        return new StringBuilder()
+                .append(mLine, mStartSize, mEndSize).append("   ")
+                .append(mLine, mStartSpeed, mEndSpeed).append("   ")
+                .append(mLine, mStartEta, mEndEta)
+                .toString();
+    }
+
+    private static int indexOf(CharSequence line, String s, int fromIndex) {
+        int last = line.length() - s.length();
+        outer:
+        for (int i = fromIndex; i <= last; i++) {
+            for (int j = 0; j < s.length(); j++) {
+                if (line.charAt(i + j) != s.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+
+        return -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isGroupingSeparator(char c) {
+        return c == ',' || c == '.' || c == '\'' || c == ' ' || c == '\u00a0' || c == '\u202f';
+    }
+
+    private static int nextSpace(CharSequence line, int index) {
+        int length = line.length();
+        while (index < length && !Character.isWhitespace(line.charAt(index))) {
+            index++;
+        }
+
+        return index;
+    }
+
+    /**
+     * Parses digits with optional grouping separators, like 12,345,678.
+     */
+    private static long parseGrouped(CharSequence line, int start, int end) {
+        long value = 0;
+        boolean digits = false;
+
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (isDigit(c)) {
+                value = value * 10 + c - '0';
+                digits = true;
+            } else if (!isGroupingSeparator(c)) {
+                return -1;
+            }
+        }
+
+        return digits ? value : -1;
+    }
+
+    private static int parseInt(CharSequence line, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+
+        return value;
+    }
+
+    private static long scale(char unit) {
+        return switch (Character.toUpperCase(unit)) {
+            case 'K' ->
+                1L << 10;
+            case 'M' ->
+                1L << 20;
+            case 'G' ->
+                1L << 30;
+            case 'T' ->
+                1L << 40;
+            case 'P' ->
+                1L << 50;
+            default ->
+                0;
+        };
+    }
+
+    private static int skipSpaces(CharSequence line, int index) {
+        int length = line.length();
+        while (index < length && Character.isWhitespace(line.charAt(index))) {
+            index++;
+        }
+
+        return index;
+    }
+
+    /**
+     * Parses a byte count like 12,345,678 or, with --human-readable, 1.23M
+     * that ends at the given index.
+     */
+    private long parseCountEndingAt(CharSequence line, int end) {
+        int start = end;
+        while (start > 0 && !Character.isWhitespace(line.charAt(start - 1))) {
+            start--;
+        }
+        if (start == end) {
+            return -1;
+        }
+
+        long scale = scale(line.charAt(end - 1));
+        if (scale == 0) {
+            return parseGrouped(line, start, end);
+        }
+
+        long hundreds = parseDecimal(line, start, end - 1);
+
+        return hundreds < 0 ? -1 : hundreds * scale / 100;
+    }
+
+    /**
+     * Parses a number where the last separator is the decimal one, returning
+     * the value times 100.
+     */
+    private long parseDecimal(CharSequence line, int start, int end) {
+        long integer = 0;
+        long group = 0;
+        int groupDigits = -1;
+
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (isDigit(c)) {
+                if (groupDigits < 0) {
+                    integer = integer * 10 + c - '0';
+                } else {
+                    group = group * 10 + c - '0';
+                    groupDigits++;
+                }
+            } else if (c == '.' || c == ',') {
+                for (int j = 0; j < groupDigits; j++) {
+                    integer *= 10;
+                }
+                integer += group;
+                group = 0;
+                groupDigits = 0;
+            } else {
+                return -1;
+            }
+        }
+
+        if (groupDigits < 0) {
+            return integer * 100;
+        }
+
+        for (; groupDigits > 2; groupDigits--) {
+            group /= 10;
+        }
+        for (; groupDigits < 2; groupDigits++) {
+            group *= 10;
+        }
+
+        return integer * 100 + group;
+    }
+
+    /**
+     * Parses a number like 2,538.00 or 2.54K that ends at the given index.
+     */
+    private long parseNumberEndingAt(CharSequence line, int end) {
+        int start = end;
+        while (start > 0 && !Character.isWhitespace(line.charAt(start - 1))) {
+            start--;
+        }
+        if (start == end) {
+            return -1;
+        }
+
+        long scale = scale(line.charAt(end - 1));
+        long hundreds = parseDecimal(line, start, scale == 0 ? end : end - 1);
+
+        return hundreds < 0 ? -1 : hundreds * Math.max(1, scale) / 100;
+    }
+
+    private void parseCounters(CharSequence line, int index) {
+        int length = line.length();
+        int i = skipSpaces(line, index);
+        if (i + 5 > length || line.charAt(i) != '(' || line.charAt(i + 1) != 'x' || line.charAt(i + 2) != 'f' || line.charAt(i + 3) != 'r' || line.charAt(i + 4) != '#') {
+            return;
+        }
+
+        i += 5;
+        int start = i;
+        while (i < length && isDigit(line.charAt(i))) {
+            i++;
+        }
+        mXfr = parseInt(line, start, i);
+
+        // to-chk=5/7) or ir-chk=5/7)
+        while (i < length && line.charAt(i) != '=') {
+            i++;
+        }
+        start = ++i;
+        while (i < length && isDigit(line.charAt(i))) {
+            i++;
+        }
+        int toCheck = parseInt(line, start, i);
+        if (i >= length || line.charAt(i) != '/') {
+            return;
+        }
+        start = ++i;
+        while (i < length && isDigit(line.charAt(i))) {
+            i++;
+        }
+        int total = parseInt(line, start, i);
+
+        if (toCheck >= 0 && total >= 0) {
+            mToCheck = toCheck;
+            mTotal = total;
+            mEndCheck = i;
+        }
+    }
+
+    private boolean parseEta(CharSequence line, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+
+        int seconds = 0;
+        int field = 0;
+        boolean known = true;
+        boolean colon = false;
+
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (isDigit(c)) {
+                field = field * 10 + c - '0';
+            } else if (c == ':') {
+                seconds = seconds * 60 + field;
+                field = 0;
+                colon = true;
+            } else if (c == '?') {
+                known = false;
+            } else {
+                return false;
+            }
+        }
+
+        mEtaSeconds = known ? seconds * 60 + field : -1;
+
+        return colon;
+    }
+
+    private boolean parseSize(CharSequence line, int start, int end) {
+        char last = line.charAt(end - 1);
+        long scale = scale(last);
+
+        if (scale == 0) {
+            long bytes = parseGrouped(line, start, end);
+            if (bytes < 0) {
+                return false;
+            }
+            mBytes = bytes;
+        } else {
+            long hundreds = parseDecimal(line, start, end - 1);
+            if (hundreds < 0) {
+                return false;
+            }
+            mBytes = hundreds * scale / 100;
+        }
+
+        return true;
+    }
+
+    private boolean parseSpeed(CharSequence line, int start, int end) {
+        // 31.25MB/s, 512.00kB/s, 1.02GB/s or 0.00B/s
+        if (end - start < 4 || line.charAt(end - 2) != '/' || line.charAt(end - 1) != 's' || line.charAt(end - 3) != 'B') {
+            return false;
+        }
+
+        int numberEnd = end - 3;
+        long scale = 1;
+        if (numberEnd > start && !isDigit(line.charAt(numberEnd - 1))) {
+            scale = scale(line.charAt(numberEnd - 1));
+            if (scale == 0) {
+                return false;
+            }
+            numberEnd--;
+        }
+
+        long hundreds = parseDecimal(line, start, numberEnd);
+        if (hundreds < 0) {
+            return false;
+        }
+        mBytesPerSecond = hundreds * scale / 100;
+
+        return true;
     }
 }
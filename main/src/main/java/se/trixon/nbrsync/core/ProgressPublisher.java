@@ -0,0 +1,128 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.netbeans.api.progress.ProgressHandle;
+import org.openide.awt.StatusDisplayer;
+import se.trixon.nbrsync.Options;
+
+/**
+ * Keeps the latest rsync progress line and publishes it to the progress handle
+ * and status line at a fixed rate, regardless of how often rsync prints.
+ *
+ * @author Patrik Karlström
+ */
+public class ProgressPublisher implements AutoCloseable {
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "ProgressPublisher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean mDeterminate;
+    private boolean mDirty;
+    private final ScheduledFuture<?> mFuture;
+    private boolean mIndeterminate;
+    private String mLine;
+    private String mPrevLine;
+    private final Progress mProgress = new Progress();
+    private final ProgressHandle mProgressHandle;
+    private final Object mPublishLock = new Object();
+    private final boolean mShowStep;
+    private final StatusDisplayer mStatusDisplayer = StatusDisplayer.getDefault();
+    private final Consumer<String> mTextConsumer;
+
+    /**
+     *
+     * @param progressHandle
+     * @param showStep false to leave the mode and step of the progress handle
+     * alone, only publishing the text
+     * @param textConsumer also receives the published text
+     */
+    public ProgressPublisher(ProgressHandle progressHandle, boolean showStep, Consumer<String> textConsumer) {
+        mProgressHandle = progressHandle;
+        mShowStep = showStep;
+        mTextConsumer = textConsumer;
+        long period = 1000 / Math.max(1, Options.getInstance().getProgressRate());
+        mFuture = SCHEDULER.scheduleAtFixedRate(this::publish, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        mFuture.cancel(false);
+        publish();
+    }
+
+    public synchronized void setIndeterminate() {
+        mIndeterminate = true;
+        mDirty = true;
+    }
+
+    public synchronized void update(String line, String prevLine) {
+        mLine = line;
+        mPrevLine = prevLine;
+        mIndeterminate = false;
+        mDirty = true;
+    }
+
+    private void publish() {
+        String line;
+        String prevLine;
+        boolean indeterminate;
+
+        synchronized (this) {
+            if (!mDirty) {
+                return;
+            }
+            mDirty = false;
+            line = mLine;
+            prevLine = mPrevLine;
+            indeterminate = mIndeterminate;
+        }
+
+        synchronized (mPublishLock) {
+            if (indeterminate) {
+                if (mShowStep && mDeterminate) {
+                    mProgressHandle.switchToIndeterminate();
+                    mDeterminate = false;
+                }
+                return;
+            }
+
+            if (line == null || !mProgress.parse(line)) {
+                return;
+            }
+
+            if (mShowStep) {
+                if (!mDeterminate) {
+                    mProgressHandle.switchToDeterminate(100);
+                    mDeterminate = true;
+                }
+                mProgressHandle.progress(mProgress.getStep());
+            }
+
+            var text = new StringBuilder(mProgress.toString()).append(" ").append(prevLine).toString();
+            mProgressHandle.progress(text);
+            mStatusDisplayer.setStatusText(text);
+            mTextConsumer.accept(text);
+        }
+    }
+}
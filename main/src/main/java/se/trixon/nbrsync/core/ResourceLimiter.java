@@ -0,0 +1,182 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.SystemUtils;
+import se.trixon.nbrsync.Options;
+import se.trixon.nbrsync.core.task.Task;
+
+/**
+ * Limits the number of concurrent rsync processes per destination resource,
+ * across all running jobs.
+ *
+ * @author Patrik Karlström <patrik@trixon.se>
+ */
+public class ResourceLimiter {
+
+    private final Options mOptions = Options.getInstance();
+    private final ConcurrentHashMap<String, Limit> mResourceToLimit = new ConcurrentHashMap<>();
+
+    public static ResourceLimiter getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * The resource of a task is its resource tag if set, otherwise the host of
+     * a remote destination or the file store of a local one.
+     *
+     * @param task
+     * @return
+     */
+    public static String getResource(Task task) {
+        if (StringUtils.isNotBlank(task.getResource())) {
+            return task.getResource().trim();
+        }
+
+        var destination = StringUtils.defaultString(task.getDestination());
+        if (StringUtils.startsWith(destination, "rsync://")) {
+            return StringUtils.substringBefore(StringUtils.removeStart(destination, "rsync://"), "/");
+        }
+
+        var beforeColon = StringUtils.substringBefore(destination, ":");
+        boolean windowsDrive = SystemUtils.IS_OS_WINDOWS && beforeColon.length() == 1;
+        if (StringUtils.contains(destination, ":") && !StringUtils.contains(beforeColon, "/") && !windowsDrive) {
+            var host = StringUtils.substringAfterLast(beforeColon, "@");
+            return host.isEmpty() ? beforeColon : host;
+        }
+
+        try {
+            var path = Path.of(destination).toAbsolutePath();
+            while (path != null && !Files.exists(path)) {
+                path = path.getParent();
+            }
+
+            if (path != null) {
+                var fileStore = Files.getFileStore(path);
+                return StringUtils.defaultIfBlank(fileStore.name(), fileStore.toString());
+            }
+        } catch (IOException | InvalidPathException ex) {
+            //nvm
+        }
+
+        return destination;
+    }
+
+    private ResourceLimiter() {
+    }
+
+    /**
+     * Acquires a permit for the resource, waiting for one to become available
+     * if the limit is reached.
+     *
+     * @param resource
+     * @param waitListener notified once if the caller has to wait
+     * @return
+     * @throws InterruptedException
+     */
+    public Permit acquire(String resource, Runnable waitListener) throws InterruptedException {
+        int maxPermits = mOptions.getResourceLimit();
+        if (maxPermits < 1) {
+            return new Permit(resource, null, 0);
+        }
+
+        var limit = mResourceToLimit.computeIfAbsent(resource, k -> new Limit(maxPermits));
+        limit.resize(maxPermits);
+        long waitTime = 0;
+
+        //tryAcquire() would barge ahead of the waiting callers, a timeout keeps the fairness
+        if (!limit.tryAcquire(0, TimeUnit.SECONDS)) {
+            waitListener.run();
+            long waitStart = System.currentTimeMillis();
+            limit.acquire();
+            waitTime = System.currentTimeMillis() - waitStart;
+        }
+
+        return new Permit(resource, limit, waitTime);
+    }
+
+    public static class Permit implements AutoCloseable {
+
+        private final String mResource;
+        private Semaphore mSemaphore;
+        private final long mWaitTime;
+
+        private Permit(String resource, Semaphore semaphore, long waitTime) {
+            mResource = resource;
+            mSemaphore = semaphore;
+            mWaitTime = waitTime;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (mSemaphore != null) {
+                mSemaphore.release();
+                mSemaphore = null;
+            }
+        }
+
+        public String getResource() {
+            return mResource;
+        }
+
+        public long getWaitTime() {
+            return mWaitTime;
+        }
+    }
+
+    /**
+     * A fair semaphore whose number of permits follows the resource limit of
+     * the options, also while permits are held.
+     */
+    private static class Limit extends Semaphore {
+
+        private int mMaxPermits;
+
+        Limit(int maxPermits) {
+            super(maxPermits, true);
+            mMaxPermits = maxPermits;
+        }
+
+        /**
+         * Adds or removes permits, the held permits are returned to the same
+         * semaphore and the available permits may go negative until they are.
+         *
+         * @param maxPermits
+         */
+        synchronized void resize(int maxPermits) {
+            int delta = maxPermits - mMaxPermits;
+            if (delta > 0) {
+                release(delta);
+            } else if (delta < 0) {
+                reducePermits(-delta);
+            }
+            mMaxPermits = maxPermits;
+        }
+    }
+
+    private static class Holder {
+
+        private static final ResourceLimiter INSTANCE = new ResourceLimiter();
+    }
+}
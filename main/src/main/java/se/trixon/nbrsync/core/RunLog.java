@@ -0,0 +1,366 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.openide.util.Exceptions;
+
+/**
+ * The process output of a job run, one directory per run and one segment per
+ * task.
+ * <p>
+ * A segment is written as gzip members of about {@value #BLOCK_SIZE} bytes
+ * each, concatenated in {@code <nnn>-<id>.log.gz}, so the file is still
+ * readable by zcat. The index {@code <nnn>-<id>.idx} holds a line per block
+ * and per error line
+ * <pre>
+ * N  name
+ * B  offset  length  first line  lines
+ * E  line  text
+ * </pre> so the tail of a segment is read by decompressing its last blocks
+ * only, and the errors are listed without decompressing anything.
+ *
+ * @author Patrik Karlström
+ */
+public class RunLog implements AutoCloseable {
+
+    private static final int BLOCK_SIZE = 256 * 1024;
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String LOG_SUFFIX = ".log.gz";
+    private static final int MAX_RUNS_PER_JOB = 30;
+    private final File mDirectory;
+    private final LinkedHashMap<String, Segment> mIdToSegment = new LinkedHashMap<>();
+
+    public static File getDirectory(String jobId) {
+        return new File(StorageManager.getInstance().getUserDirectory(), "var/log/%s".formatted(jobId));
+    }
+
+    /**
+     * @param jobId
+     * @return the run directories of a job, newest first
+     */
+    public static List<File> getRuns(String jobId) {
+        var files = getDirectory(jobId).listFiles(file -> file.isDirectory());
+        if (files == null) {
+            return List.of();
+        }
+
+        return Arrays.stream(files)
+                .sorted(Comparator.comparing(File::getName).reversed())
+                .toList();
+    }
+
+    /**
+     * Prints the matching lines of every segment of a run, decompressing one
+     * block at a time.
+     *
+     * @param runDirectory
+     * @param text to search for, ignoring case
+     * @param limit the maximum number of matches
+     * @param consumer
+     * @return the number of matches
+     */
+    public static int search(File runDirectory, String text, int limit, Consumer<String> consumer) {
+        int numOfMatches = 0;
+
+        for (var index : getIndexes(runDirectory)) {
+            try (var raf = new RandomAccessFile(index.getLogFile(), "r")) {
+                for (var block : index.getBlocks()) {
+                    long lineNumber = block.firstLine();
+                    for (var line : block.read(raf)) {
+                        lineNumber++;
+                        if (StringUtils.containsIgnoreCase(line, text)) {
+                            consumer.accept("%s:%d: %s".formatted(index.getName(), lineNumber, line));
+                            if (++numOfMatches >= limit) {
+                                return numOfMatches;
+                            }
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                consumer.accept(ex.toString());
+            }
+        }
+
+        return numOfMatches;
+    }
+
+    /**
+     * Prints the errors and the last lines of every segment of a run.
+     *
+     * @param runDirectory
+     * @param numOfLines per segment
+     * @param consumer
+     */
+    public static void tail(File runDirectory, int numOfLines, Consumer<String> consumer) {
+        for (var index : getIndexes(runDirectory)) {
+            consumer.accept("== %s ==".formatted(index.getName()));
+            index.getErrors().forEach(consumer);
+
+            var lines = new ArrayDeque<String>();
+            var blocks = index.getBlocks();
+            try (var raf = new RandomAccessFile(index.getLogFile(), "r")) {
+                for (int i = blocks.size() - 1; i >= 0 && lines.size() < numOfLines; i--) {
+                    var blockLines = blocks.get(i).read(raf);
+                    for (int j = blockLines.size() - 1; j >= 0 && lines.size() < numOfLines; j--) {
+                        lines.addFirst(blockLines.get(j));
+                    }
+                }
+            } catch (IOException ex) {
+                consumer.accept(ex.toString());
+            }
+
+            if (lines.size() < index.getNumOfLines()) {
+                consumer.accept("...");
+            }
+            lines.forEach(consumer);
+            consumer.accept("");
+        }
+    }
+
+    private static List<Index> getIndexes(File runDirectory) {
+        var files = runDirectory.listFiles((dir, name) -> name.endsWith(INDEX_SUFFIX));
+        if (files == null) {
+            return List.of();
+        }
+
+        return Arrays.stream(files)
+                .sorted(Comparator.comparing(File::getName))
+                .map(file -> new Index(file))
+                .toList();
+    }
+
+    public RunLog(String jobId, boolean dryRun) {
+        var timestamp = new SimpleDateFormat("yyyyMMdd'T'HHmmss.SSS").format(new Date());
+        mDirectory = new File(getDirectory(jobId), timestamp + (dryRun ? "-dry-run" : ""));
+
+        try {
+            FileUtils.forceMkdir(mDirectory);
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        mIdToSegment.values().forEach(segment -> segment.close());
+        mIdToSegment.clear();
+
+        var runs = getRuns(mDirectory.getParentFile().getName());
+        for (int i = MAX_RUNS_PER_JOB; i < runs.size(); i++) {
+            FileUtils.deleteQuietly(runs.get(i));
+        }
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * @param id of the task, or of the job for its scripts
+     * @param name
+     * @return the segment, created on first use
+     */
+    public synchronized Segment getSegment(String id, String name) {
+        return mIdToSegment.computeIfAbsent(id, k -> new Segment("%03d-%s".formatted(mIdToSegment.size() + 1, id), name));
+    }
+
+    public class Segment {
+
+        private final ByteArrayOutputStream mBlock = new ByteArrayOutputStream(BLOCK_SIZE);
+        private long mFirstLine;
+        private BufferedWriter mIndexWriter;
+        private OutputStream mLogStream;
+        private int mNumOfBlockLines;
+        private long mOffset;
+
+        private Segment(String baseName, String name) {
+            try {
+                mLogStream = new FileOutputStream(new File(mDirectory, baseName + LOG_SUFFIX));
+                mIndexWriter = Files.newBufferedWriter(new File(mDirectory, baseName + INDEX_SUFFIX).toPath(), StandardCharsets.UTF_8);
+                mIndexWriter.append("N\t").append(StringUtils.replaceChars(name, "\t\r\n", "   ")).append('\n');
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+                close();
+            }
+        }
+
+        /**
+         * @param line
+         * @param error true if the line was written to stderr, rsync error
+         * lines on stdout are recognized
+         */
+        public synchronized void println(String line, boolean error) {
+            if (mLogStream == null) {
+                return;
+            }
+
+            try {
+                mBlock.write(line.getBytes(StandardCharsets.UTF_8));
+                mBlock.write('\n');
+                mNumOfBlockLines++;
+
+                if (error || StringUtils.startsWithAny(line, "rsync: ", "rsync error: ")) {
+                    mIndexWriter.append("E\t%d\t".formatted(mFirstLine + mNumOfBlockLines))
+                            .append(StringUtils.replaceChars(line, "\t\r", "  "))
+                            .append('\n');
+                }
+
+                if (mBlock.size() >= BLOCK_SIZE) {
+                    writeBlock();
+                }
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+                close();
+            }
+        }
+
+        private synchronized void close() {
+            try {
+                if (mLogStream != null && mIndexWriter != null) {
+                    writeBlock();
+                }
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+            }
+
+            IOUtils.closeQuietly(mLogStream);
+            IOUtils.closeQuietly(mIndexWriter);
+            mLogStream = null;
+            mIndexWriter = null;
+        }
+
+        private void writeBlock() throws IOException {
+            if (mNumOfBlockLines == 0) {
+                return;
+            }
+
+            var compressed = new ByteArrayOutputStream(mBlock.size() / 4);
+            try (var gzipOutputStream = new GZIPOutputStream(compressed)) {
+                mBlock.writeTo(gzipOutputStream);
+            }
+            compressed.writeTo(mLogStream);
+            mLogStream.flush();
+
+            mIndexWriter.append("B\t%d\t%d\t%d\t%d\n".formatted(mOffset, compressed.size(), mFirstLine, mNumOfBlockLines));
+            mIndexWriter.flush();
+
+            mOffset += compressed.size();
+            mFirstLine += mNumOfBlockLines;
+            mNumOfBlockLines = 0;
+            mBlock.reset();
+        }
+    }
+
+    private record Block(long offset, int length, long firstLine, int numOfLines) {
+
+        public List<String> read(RandomAccessFile raf) throws IOException {
+            var bytes = new byte[length];
+            raf.seek(offset);
+            raf.readFully(bytes);
+
+            var lines = new ArrayList<String>(numOfLines);
+            try (var reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            }
+
+            return lines;
+        }
+    }
+
+    private static class Index {
+
+        private final ArrayList<Block> mBlocks = new ArrayList<>();
+        private final ArrayList<String> mErrors = new ArrayList<>();
+        private final File mLogFile;
+        private String mName;
+        private long mNumOfLines;
+
+        public Index(File file) {
+            mLogFile = new File(file.getParentFile(), StringUtils.removeEnd(file.getName(), INDEX_SUFFIX) + LOG_SUFFIX);
+            mName = StringUtils.removeEnd(file.getName(), INDEX_SUFFIX);
+
+            try {
+                for (var line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    var elements = StringUtils.splitPreserveAllTokens(line, '\t');
+                    switch (elements[0]) {
+                        case "N" ->
+                            mName = elements[1];
+                        case "B" -> {
+                            var block = new Block(Long.parseLong(elements[1]), Integer.parseInt(elements[2]), Long.parseLong(elements[3]), Integer.parseInt(elements[4]));
+                            mBlocks.add(block);
+                            mNumOfLines += block.numOfLines();
+                        }
+                        case "E" ->
+                            mErrors.add("%s:%s: %s".formatted(mName, elements[1], elements[2]));
+                        default -> {
+                        }
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                //A torn last line from a crash, keep what was read
+            }
+        }
+
+        public List<Block> getBlocks() {
+            return mBlocks;
+        }
+
+        public List<String> getErrors() {
+            return mErrors;
+        }
+
+        public File getLogFile() {
+            return mLogFile;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getNumOfLines() {
+            return mNumOfLines;
+        }
+    }
+}
@@ -16,18 +16,34 @@
 package se.trixon.nbrsync.core;
 
 import it.sauronsoftware.cron4j.Scheduler;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.time.Duration;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOCase;
-import org.apache.commons.io.filefilter.FileFilterUtils;
-import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
-import org.apache.commons.io.monitor.FileAlterationMonitor;
-import org.apache.commons.io.monitor.FileAlterationObserver;
+import org.apache.commons.lang3.StringUtils;
 import org.openide.LifecycleManager;
 import org.openide.modules.Places;
 import org.openide.util.Exceptions;
@@ -35,6 +51,7 @@ import org.openide.util.NbBundle;
 import se.trixon.almond.util.Dict;
 import se.trixon.nbrsync.NbRsync;
 import se.trixon.nbrsync.boot.DoArgsProcessing;
+import se.trixon.nbrsync.core.job.Job;
 
 /**
  *
@@ -42,8 +59,22 @@ import se.trixon.nbrsync.boot.DoArgsProcessing;
  */
 public class Server {
 
+    public static final String COMMAND_CANCEL = "cancel";
+    public static final String COMMAND_JOBS = "jobs";
+    public static final String COMMAND_LIST = "list";
+    public static final String COMMAND_PROGRESS = "progress";
+    public static final String COMMAND_RELOAD = "reload";
+    public static final String COMMAND_RUN = "run";
+    public static final String COMMAND_START = "start";
+    public static final String COMMAND_START_DRY_RUN = "start-dry-run";
+    public static final String RESPONSE_ERROR = "ERROR";
+    public static final String RESPONSE_OK = "OK";
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
     private final ResourceBundle mBundle = NbBundle.getBundle(Server.class);
+    private ServerSocketChannel mControlChannel;
+    private final File mControlFile = new File(Places.getUserDirectory(), "server.sock");
     private final ExecutorManager mExecutorManager = ExecutorManager.getInstance();
+    private final ConcurrentHashMap<String, Schedule> mJobIdToSchedule = new ConcurrentHashMap<>();
     private final File mLockFile = new File(Places.getUserDirectory(), "lock");
     private final JobManager mManager = JobManager.getInstance();
     private final File mReloadFile = new File(Places.getUserDirectory(), "server_marked_for_reload");
@@ -85,6 +116,34 @@ public class Server {
         }
     }
 
+    /**
+     * Sends a command to a running server over its control socket and passes
+     * the response lines to the consumer.
+     *
+     * @param command
+     * @param lineConsumer
+     * @return false if no server is listening
+     */
+    public boolean send(String command, Consumer<String> lineConsumer) {
+        if (!mControlFile.exists()) {
+            return false;
+        }
+
+        try (var channel = SocketChannel.open(UnixDomainSocketAddress.of(mControlFile.toPath()))) {
+            var writer = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), true);
+            writer.println(command);
+            var reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineConsumer.accept(line);
+            }
+
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
     public void start() {
         if (mServerFile.isFile()) {
             System.out.println(Dict.SERVER_ALREADY_STARTED.toString());
@@ -101,50 +160,64 @@ public class Server {
         System.out.println(mBundle.getString("startingInServerMode"));
 
         load();
+        startControlChannel();
 
-        while (mServerFile.isFile()) {
-            try {
-                Thread.sleep(Duration.ofSeconds(1));
+        try (var watchService = createWatchService()) {
+            while (mServerFile.isFile()) {
                 if (mReloadFile.isFile()) {
                     reload();
                 }
-            } catch (InterruptedException ex) {
-                Exceptions.printStackTrace(ex);
+
+                var key = watchService.take();
+                key.pollEvents();
+                if (!key.reset()) {
+                    break;
+                }
             }
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
 
         mScheduler.stop();
+        stopControlChannel();
         System.out.println(Dict.SERVER_STOPPED.toString());
 
         LifecycleManager.getDefault().exit();
     }
 
     public void startMonitor() {
-        var directory = Places.getUserDirectory();
-        var filter = FileFilterUtils.nameFileFilter(mServerFile.getName());
-        var fileAlterationListener = new FileAlterationListenerAdaptor() {
-            @Override
-            public void onFileCreate(File file) {
-                mStartMonitors.forEach(r -> r.run());
-            }
-
-            @Override
-            public void onFileDelete(File file) {
-                mStopMonitors.forEach(r -> r.run());
+        var thread = new Thread(() -> {
+            var serverPath = Path.of(mServerFile.getName());
+            try (var watchService = createWatchService()) {
+                while (true) {
+                    var key = watchService.take();
+                    for (var event : key.pollEvents()) {
+                        if (!serverPath.equals(event.context())) {
+                            continue;
+                        }
+
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                            mStartMonitors.forEach(r -> r.run());
+                        } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                            mStopMonitors.forEach(r -> r.run());
+                        }
+                    }
+
+                    if (!key.reset()) {
+                        break;
+                    }
+                }
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
             }
-        };
+        }, "ServerMonitor");
 
-        var observer = new FileAlterationObserver(directory, filter, IOCase.INSENSITIVE);
-        observer.addListener(fileAlterationListener);
-
-        var monitor = new FileAlterationMonitor(TimeUnit.SECONDS.toMillis(1));
-        monitor.addObserver(observer);
-
-        try {
-            monitor.start();
-        } catch (Exception ex) {
-            Exceptions.printStackTrace(ex);
-        }
+        thread.setDaemon(true);
+        thread.start();
     }
 
     public void stop() {
@@ -161,39 +234,164 @@ public class Server {
         NbRsync.delete(mServerFile);
     }
 
-    private boolean hasScheduledJobs() {
-        for (var job : mManager.getItems()) {
-            if (job.isScheduled()) {
-                return true;
+    private void cancelJob(PrintWriter writer, String jobName) {
+        var jobExecutor = getJobExecutor(jobName);
+        if (jobExecutor == null) {
+            writer.println("%s %s".formatted(RESPONSE_ERROR, jobName));
+        } else {
+            mExecutorManager.cancel(jobExecutor);
+            writer.println(RESPONSE_OK);
+        }
+    }
+
+    /**
+     * Watches the user directory for created, modified and deleted files, so
+     * that the server and the GUI are woken up by the marker files instead of
+     * polling for them.
+     */
+    private WatchService createWatchService() throws IOException {
+        var watchService = FileSystems.getDefault().newWatchService();
+        Places.getUserDirectory().toPath().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY
+        );
+
+        return watchService;
+    }
+
+    private void deschedule(Schedule schedule) {
+        schedule.ids().forEach(id -> mScheduler.deschedule(id));
+    }
+
+    /**
+     * Writes the progress of a job once a second while it is queued or
+     * running, and then its exit code as {@code OK <exit code>}.
+     *
+     * @param writer
+     * @param jobId
+     * @param future of the job
+     */
+    private void followJob(PrintWriter writer, String jobId, CompletableFuture<Integer> future) {
+        var text = "";
+        while (!future.isDone() && !writer.checkError()) {
+            var jobExecutor = mExecutorManager.getJobExecutors().get(jobId);
+            if (jobExecutor != null) {
+                var progressText = jobExecutor.getProgressText();
+                if (!progressText.equals(text)) {
+                    text = progressText;
+                    writer.println(text);
+                }
+            }
+
+            try {
+                future.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | TimeoutException ex) {
+                //nvm, checked by the loop
             }
         }
 
-        return false;
+        if (future.isDone()) {
+            writer.println("%s %d".formatted(RESPONSE_OK, future.exceptionally(ex -> 1).join()));
+        }
     }
 
-    private void load() {
-        mScheduler = new Scheduler();
+    private JobExecutor getJobExecutor(String jobName) {
+        var jobExecutors = new ArrayList<JobExecutor>(mExecutorManager.getJobExecutors().values());
+        jobExecutors.addAll(mExecutorManager.getQueuedJobExecutors());
+        for (var jobExecutor : jobExecutors) {
+            if (StringUtils.equalsIgnoreCase(jobName, jobExecutor.getJob().getName())) {
+                return jobExecutor;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * The items of the manager back the views on the FX thread, the server
+     * threads work on a copy of them, sorted like the views.
+     *
+     * @return a snapshot of the jobs
+     */
+    private List<Job> getJobs() {
+        var jobs = new ArrayList<Job>(mManager.getIdToItem().values());
+        jobs.sort((o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
+
+        return jobs;
+    }
+
+    /**
+     * Handles one connection of the control channel, a single command line
+     * followed by the response lines.
+     *
+     * @param channel
+     */
+    private void handleControlConnection(SocketChannel channel) {
+        try (channel) {
+            var reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            var writer = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8), true);
+            var line = reader.readLine();
+            if (line == null) {
+                return;
+            }
 
-        if (hasScheduledJobs()) {
-            for (var job : mManager.getItems()) {
-                if (job.isScheduled()) {
-                    System.out.println(mBundle.getString("scheduling_s").formatted(job.getName()));
-                    job.getCronItemsAsList().stream().map(c -> c.getName()).forEachOrdered(cronString -> {
-                        System.out.println("\t%s".formatted(cronString));
-                        mScheduler.schedule(cronString, () -> {
-                            if (job.isLocked()) {
-                                System.out.println(NbBundle.getMessage(DoArgsProcessing.class, "skipRunningJob").formatted(job.getName()));
-                            } else {
-                                mExecutorManager.start(job, false);
-                            }
-                        });
-                    });
+            var command = StringUtils.substringBefore(line, " ");
+            var argument = StringUtils.substringAfter(line, " ");
+            switch (command) {
+                case COMMAND_CANCEL ->
+                    cancelJob(writer, argument);
+                case COMMAND_JOBS ->
+                    listJobs(writer);
+                case COMMAND_LIST ->
+                    listRunningJobs(writer);
+                case COMMAND_PROGRESS ->
+                    streamProgress(writer, argument);
+                case COMMAND_RELOAD -> {
+                    FileUtils.touch(mReloadFile);
+                    writer.println(RESPONSE_OK);
                 }
+                case COMMAND_RUN ->
+                    startJob(writer, argument, false, true);
+                case COMMAND_START ->
+                    startJob(writer, argument, false, false);
+                case COMMAND_START_DRY_RUN ->
+                    startJob(writer, argument, true, false);
+                default ->
+                    writer.println("%s %s".formatted(RESPONSE_ERROR, command));
             }
-        } else {
-            System.out.println(mBundle.getString("noScheduledJobs"));
+        } catch (IOException ex) {
+            //nvm, the client went away
         }
+    }
+
+    private void listJobs(PrintWriter writer) {
+        getJobs().forEach(job -> writer.println(DoArgsProcessing.getJobListing(job)));
+        writer.println(RESPONSE_OK);
+    }
 
+    private void listRunningJobs(PrintWriter writer) {
+        for (var jobExecutor : mExecutorManager.getJobExecutors().values()) {
+            writer.println("%s\t%s\t%d\t%s".formatted(
+                    jobExecutor.getJob().getName(),
+                    ExecutorManager.State.RUNNING,
+                    jobExecutor.getStartTime(),
+                    jobExecutor.getProgressText()
+            ));
+        }
+        for (var jobExecutor : mExecutorManager.getQueuedJobExecutors()) {
+            writer.println("%s\t%s\t0\t".formatted(jobExecutor.getJob().getName(), ExecutorManager.State.QUEUED));
+        }
+        writer.println(RESPONSE_OK);
+    }
+
+    private void load() {
+        mScheduler = new Scheduler();
+        mJobIdToSchedule.clear();
+        updateSchedules();
         mScheduler.start();
     }
 
@@ -201,17 +399,162 @@ public class Server {
         System.out.println(Dict.RELOADING_CONFIGURATION);
         try {
             NbRsync.delete(mReloadFile);
-            mScheduler.stop();
             StorageManager.getInstance().load();
-            load();
+            updateSchedules();
         } catch (IOException ex) {
             Exceptions.printStackTrace(ex);
         }
 
     }
 
+    /**
+     * Listens on a Unix domain socket in the user directory for commands from
+     * the GUI and the command line.
+     */
+    private void startControlChannel() {
+        try {
+            FileUtils.deleteQuietly(mControlFile);
+            mControlChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            mControlChannel.bind(UnixDomainSocketAddress.of(mControlFile.toPath()));
+        } catch (IOException | UnsupportedOperationException ex) {
+            Exceptions.printStackTrace(ex);
+            mControlChannel = null;
+            return;
+        }
+
+        var thread = new Thread(() -> {
+            while (mControlChannel.isOpen()) {
+                try {
+                    var channel = mControlChannel.accept();
+                    var connectionThread = new Thread(() -> handleControlConnection(channel), "ServerControlConnection");
+                    connectionThread.setDaemon(true);
+                    connectionThread.start();
+                } catch (IOException ex) {
+                    //closed
+                }
+            }
+        }, "ServerControl");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param writer
+     * @param jobName
+     * @param dryRun
+     * @param follow true to keep the connection and follow the job until it
+     * ends, false to respond as soon as it is started
+     */
+    private void startJob(PrintWriter writer, String jobName, boolean dryRun, boolean follow) {
+        var job = getJobs().stream()
+                .filter(j -> StringUtils.equalsIgnoreCase(jobName, j.getName()))
+                .findFirst()
+                .orElse(null);
+        if (job == null) {
+            writer.println("%s %s: %s".formatted(RESPONSE_ERROR, Dict.JOB_NOT_FOUND.toString(), jobName));
+        } else if (job.isLocked()) {
+            writer.println("%s %s".formatted(RESPONSE_ERROR, NbBundle.getMessage(DoArgsProcessing.class, "skipRunningJob").formatted(job.getName())));
+        } else {
+            var future = mExecutorManager.start(job, dryRun);
+            if (follow) {
+                followJob(writer, job.getId(), future);
+            } else {
+                writer.println(RESPONSE_OK);
+            }
+        }
+    }
+
+    private void startScheduled(String jobId) {
+        var schedule = mJobIdToSchedule.get(jobId);
+        if (schedule == null) {
+            return;
+        }
+
+        var job = schedule.job();
+        if (job.isLocked()) {
+            System.out.println(NbBundle.getMessage(DoArgsProcessing.class, "skipRunningJob").formatted(job.getName()));
+        } else {
+            mExecutorManager.start(job, false);
+        }
+    }
+
+    private void stopControlChannel() {
+        if (mControlChannel != null) {
+            try {
+                mControlChannel.close();
+            } catch (IOException ex) {
+                //nvm
+            }
+        }
+        FileUtils.deleteQuietly(mControlFile);
+    }
+
+    private void streamProgress(PrintWriter writer, String jobName) {
+        var jobExecutor = getJobExecutor(jobName);
+        if (jobExecutor == null) {
+            writer.println("%s %s".formatted(RESPONSE_ERROR, jobName));
+        } else {
+            followJob(writer, jobExecutor.getJob().getId(), jobExecutor.getFuture());
+        }
+    }
+
+    /**
+     * Compares the scheduled jobs with the loaded ones by id and only
+     * deschedules and schedules the jobs whose cron items or activation
+     * changed, while the scheduler keeps running.
+     */
+    private void updateSchedules() {
+        var jobIds = new HashSet<String>();
+
+        for (var job : getJobs()) {
+            if (!job.isScheduled()) {
+                continue;
+            }
+
+            var jobId = job.getId();
+            jobIds.add(jobId);
+            var schedule = mJobIdToSchedule.get(jobId);
+            if (schedule != null && schedule.cronItems().equals(job.getCronItems())) {
+                mJobIdToSchedule.put(jobId, new Schedule(job, schedule.cronItems(), schedule.ids()));
+                continue;
+            }
+
+            if (schedule != null) {
+                deschedule(schedule);
+            }
+
+            System.out.println(mBundle.getString("scheduling_s").formatted(job.getName()));
+            var ids = new ArrayList<String>();
+            job.getCronItemsAsList().stream().map(c -> c.getName()).forEachOrdered(cronString -> {
+                System.out.println("\t%s".formatted(cronString));
+                ids.add(mScheduler.schedule(cronString, () -> startScheduled(jobId)));
+            });
+            mJobIdToSchedule.put(jobId, new Schedule(job, job.getCronItems(), ids));
+        }
+
+        mJobIdToSchedule.entrySet().removeIf(entry -> {
+            if (jobIds.contains(entry.getKey())) {
+                return false;
+            }
+
+            System.out.println(mBundle.getString("unscheduling_s").formatted(entry.getValue().job().getName()));
+            deschedule(entry.getValue());
+
+            return true;
+        });
+
+        if (mJobIdToSchedule.isEmpty()) {
+            System.out.println(mBundle.getString("noScheduledJobs"));
+        }
+    }
+
     private static class Holder {
 
         private static final Server INSTANCE = new Server();
     }
+
+    private record Schedule(Job job, String cronItems, List<String> ids) {
+
+    }
 }
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import org.apache.commons.io.FileUtils;
+import org.openide.util.Exceptions;
+import se.trixon.almond.util.fx.FxHelper;
+import se.trixon.nbrsync.core.task.Task;
+
+/**
+ * The last run fields of jobs and tasks, kept apart from the profiles so that
+ * finishing a run never rewrites the configuration.
+ * <p>
+ * Every update appends one small binary record and the last record of an id
+ * wins. The file is compacted on load when it holds many stale records.
+ * <p>
+ * The file starts with a magic number and every record is framed as
+ * <pre>
+ * length  payload  crc32
+ * </pre> so a record torn by a crash is detected, and cut off before the next
+ * append.
+ * <p>
+ * The GUI and the server share the file, so appends, reads and compactions
+ * hold an exclusive lock on {@code state.lock}, and every append opens the
+ * file anew, never writing to a file that was replaced by a compaction.
+ *
+ * @author Patrik Karlström
+ */
+public class StateStore {
+
+    private static final int COMPACT_MIN_RECORDS = 256;
+    private static final int MAGIC = 0x4e525331;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    private final File mFile;
+    private final HashMap<String, State> mIdToState = new HashMap<>();
+    private final File mLockFile;
+    private boolean mUnframed;
+
+    public static StateStore getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private StateStore() {
+        mFile = new File(StorageManager.getInstance().getUserDirectory(), "var/state");
+        mLockFile = new File(mFile.getPath() + ".lock");
+    }
+
+    /**
+     * Reads the stored state and applies it to the items.
+     * <p>
+     * Items without stored state keep the values read from the profiles, and
+     * those are recorded, so that old profiles are migrated.
+     *
+     * @param items
+     */
+    public synchronized void load(Collection<? extends BaseItem> items) {
+        mIdToState.clear();
+        try (var lockChannel = lock()) {
+            apply(items, read());
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    /**
+     * Records the current last run fields of the item.
+     *
+     * @param item
+     */
+    public synchronized void put(BaseItem item) {
+        var state = createState(item);
+        mIdToState.put(item.getId(), state);
+
+        try (var lockChannel = lock(); var outputStream = new FileOutputStream(mFile, true)) {
+            if (mFile.length() == 0) {
+                outputStream.write(getMagicBytes());
+            }
+            outputStream.write(toBytes(item.getId(), state));
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    /**
+     * Watches the state file and applies the records of other processes, like
+     * the server, to the loaded jobs and tasks, so that the GUI shows their
+     * last runs.
+     */
+    public void startMonitor() {
+        var thread = new Thread(() -> {
+            var directory = mFile.getParentFile();
+            var statePath = Path.of(mFile.getName());
+            try {
+                FileUtils.forceMkdir(directory);
+                try (var watchService = FileSystems.getDefault().newWatchService()) {
+                    directory.toPath().register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY
+                    );
+
+                    while (true) {
+                        var key = watchService.take();
+                        if (key.pollEvents().stream().anyMatch(event -> statePath.equals(event.context()))) {
+                            refresh();
+                        }
+
+                        if (!key.reset()) {
+                            break;
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }, "StateStoreMonitor");
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Applies the read state to the items and records the state of the items
+     * that only have it in the profiles.
+     *
+     * @param items
+     * @param numOfRecords in the file
+     */
+    private void apply(Collection<? extends BaseItem> items, int numOfRecords) {
+        var itemIds = new HashMap<String, BaseItem>();
+        var migrated = false;
+        for (var item : items) {
+            itemIds.put(item.getId(), item);
+            var state = mIdToState.get(item.getId());
+            if (state != null) {
+                setState(item, state);
+            } else if (item.getLastRun() > 0) {
+                mIdToState.put(item.getId(), createState(item));
+                migrated = true;
+            }
+        }
+
+        var stale = mIdToState.keySet().removeIf(id -> !itemIds.containsKey(id));
+        if (migrated || mUnframed || (stale && numOfRecords > COMPACT_MIN_RECORDS) || numOfRecords > COMPACT_MIN_RECORDS + 2 * mIdToState.size()) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        var tmpFile = new File(mFile.getPath() + ".tmp");
+        try {
+            try (var outputStream = new BufferedOutputStream(new FileOutputStream(tmpFile))) {
+                outputStream.write(getMagicBytes());
+                for (var entry : mIdToState.entrySet()) {
+                    outputStream.write(toBytes(entry.getKey(), entry.getValue()));
+                }
+            }
+            Files.move(tmpFile.toPath(), mFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+            FileUtils.deleteQuietly(tmpFile);
+        }
+    }
+
+    private State createState(BaseItem item) {
+        long bytesPerSecond = item instanceof Task task ? task.getLastRunBytesPerSecond() : -1;
+
+        return new State(item.getLastStarted(), item.getLastRun(), item.getLastRunExitCode(), bytesPerSecond);
+    }
+
+    private byte[] getMagicBytes() {
+        return new byte[]{(byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC};
+    }
+
+    /**
+     * @return a channel holding an exclusive lock on the lock file, closing
+     * it releases the lock
+     * @throws IOException
+     */
+    private FileChannel lock() throws IOException {
+        FileUtils.forceMkdirParent(mLockFile);
+        var channel = FileChannel.open(mLockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        return channel;
+    }
+
+    /**
+     * Reads the records up to the first torn or corrupt one, and truncates the
+     * file after the last complete record.
+     *
+     * @return the number of records read
+     */
+    private int read() {
+        mUnframed = false;
+        int numOfRecords = 0;
+        if (!mFile.isFile()) {
+            return numOfRecords;
+        }
+
+        long validLength = 0;
+        try (var inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (inputStream.readInt() != MAGIC) {
+                mUnframed = true;
+                return readUnframed();
+            }
+            validLength = Integer.BYTES;
+
+            var crc = new CRC32();
+            while (true) {
+                int length = inputStream.readInt();
+                if (length < 1 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+                var payload = new byte[length];
+                inputStream.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if (inputStream.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+
+                var record = new DataInputStream(new ByteArrayInputStream(payload));
+                var id = record.readUTF();
+                mIdToState.put(id, new State(record.readLong(), record.readLong(), record.readInt(), record.readLong()));
+                numOfRecords++;
+                validLength += 2 * Integer.BYTES + length;
+            }
+        } catch (EOFException ex) {
+            //A torn last record
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+            return numOfRecords;
+        }
+
+        if (validLength < mFile.length()) {
+            try (var channel = FileChannel.open(mFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+            }
+        }
+
+        return numOfRecords;
+    }
+
+    /**
+     * Reads a file written before the records were framed, load compacts it
+     * into the framed format.
+     */
+    private int readUnframed() {
+        int numOfRecords = 0;
+        try (var inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            while (true) {
+                var id = inputStream.readUTF();
+                var state = new State(inputStream.readLong(), inputStream.readLong(), inputStream.readInt(), inputStream.readLong());
+                mIdToState.put(id, state);
+                numOfRecords++;
+            }
+        } catch (EOFException ex) {
+            //Done, a truncated last record is dropped
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+
+        return numOfRecords;
+    }
+
+    /**
+     * Re-reads the file off the FX thread and applies it to the items on it.
+     */
+    private void refresh() {
+        HashMap<String, State> idToState;
+        synchronized (this) {
+            mIdToState.clear();
+            try (var lockChannel = lock()) {
+                read();
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+            }
+            idToState = new HashMap<>(mIdToState);
+        }
+
+        FxHelper.runLater(() -> {
+            var storageManager = StorageManager.getInstance();
+            var items = new ArrayList<BaseItem>(storageManager.getJobManager().getItems());
+            items.addAll(storageManager.getTaskManager().getItems());
+            for (var item : items) {
+                var state = idToState.get(item.getId());
+                if (state != null) {
+                    setState(item, state);
+                }
+            }
+
+            storageManager.getJobManager().refresh();
+            storageManager.getTaskManager().refresh();
+        });
+    }
+
+    private void setState(BaseItem item, State state) {
+        item.setLastStarted(state.lastStarted());
+        item.setLastRun(state.lastRun());
+        item.setLastRunExitCode(state.lastRunExitCode());
+        if (item instanceof Task task) {
+            task.setLastRunBytesPerSecond(state.lastRunBytesPerSecond());
+        }
+    }
+
+    private byte[] toBytes(String id, State state) throws IOException {
+        var payload = new ByteArrayOutputStream(64);
+        var payloadStream = new DataOutputStream(payload);
+        payloadStream.writeUTF(id);
+        payloadStream.writeLong(state.lastStarted());
+        payloadStream.writeLong(state.lastRun());
+        payloadStream.writeInt(state.lastRunExitCode());
+        payloadStream.writeLong(state.lastRunBytesPerSecond());
+
+        var crc = new CRC32();
+        crc.update(payload.toByteArray());
+        var baos = new ByteArrayOutputStream(payload.size() + 2 * Integer.BYTES);
+        var outputStream = new DataOutputStream(baos);
+        outputStream.writeInt(payload.size());
+        payload.writeTo(outputStream);
+        outputStream.writeInt((int) crc.getValue());
+
+        return baos.toByteArray();
+    }
+
+    private static class Holder {
+
+        private static final StateStore INSTANCE = new StateStore();
+    }
+
+    private record State(long lastStarted, long lastRun, int lastRunExitCode, long lastRunBytesPerSecond) {
+
+    }
+}
@@ -15,18 +15,39 @@
  */
 package se.trixon.nbrsync.core;
 
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import javafx.collections.ObservableMap;
 import org.apache.commons.io.FileUtils;
 import org.openide.modules.Places;
 import org.openide.util.Exceptions;
+import se.trixon.nbrsync.Options;
+import se.trixon.nbrsync.core.history.HistoryStore;
+import se.trixon.nbrsync.core.history.Run;
 import se.trixon.nbrsync.core.job.Job;
 import se.trixon.nbrsync.core.task.Task;
 
@@ -36,15 +57,42 @@ import se.trixon.nbrsync.core.task.Task;
  */
 public class StorageManager {
 
+    /**
+     * Last run fields kept in the StateStore. They are still read, to migrate
+     * old profiles, but never written.
+     */
+    private static final Set<String> STATE_FIELDS = Set.of("mLastRun", "mLastRunBytesPerSecond", "mLastRunExitCode", "mLastStarted");
     public static final Gson GSON = new GsonBuilder()
             .setVersion(1.0)
             .serializeNulls()
             .setPrettyPrinting()
+            .addSerializationExclusionStrategy(new ExclusionStrategy() {
+                @Override
+                public boolean shouldSkipClass(Class<?> clazz) {
+                    return false;
+                }
+
+                @Override
+                public boolean shouldSkipField(FieldAttributes f) {
+                    return (f.getDeclaringClass() == BaseItem.class || f.getDeclaringClass() == Task.class) && STATE_FIELDS.contains(f.getName());
+                }
+            })
             .create();
 
+    private static final long SAVE_DELAY_MILLIS = 500;
+    private final ArrayList<Runnable> mAfterSaveRunnables = new ArrayList<>();
+    private boolean mDirty;
     private final File mHistoryFile;
     private final JobManager mJobManager = JobManager.getInstance();
+    private final Journal mJournal;
+    private int mNumOfJournaledChanges;
     private final File mProfilesFile;
+    private final ScheduledExecutorService mSaveExecutorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "StorageManager");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ScheduledFuture<?> mSaveFuture;
     private Storage mStorage = new Storage();
     private final TaskManager mTaskManager = TaskManager.getInstance();
     private final File mUserDirectory;
@@ -53,21 +101,35 @@ public class StorageManager {
         return Holder.INSTANCE;
     }
 
-    public static void save() {
-        try {
-            StorageManager.getInstance().saveToFile();
-        } catch (IOException ex) {
-            Exceptions.printStackTrace(ex);
-        }
+    /**
+     * Refreshes the item lists and requests a save of the profiles.
+     * <p>
+     * The file is written once per burst of calls, see requestSave.
+     *
+     * @param changes adds the changed items to the journal
+     */
+    public static void save(Consumer<Journal> changes) {
+        var storageManager = StorageManager.getInstance();
+        storageManager.mJobManager.refresh();
+        storageManager.mTaskManager.refresh();
+        storageManager.requestSave(changes);
     }
 
     private StorageManager() {
         mUserDirectory = Places.getUserDirectory();
 
         mProfilesFile = new File(mUserDirectory, "profiles.json");
+        mJournal = new Journal(new File(mUserDirectory, "profiles.journal"));
         mHistoryFile = new File(mUserDirectory, "var/history");
     }
 
+    /**
+     * Writes a pending save now, used on exit.
+     */
+    public void flush() {
+        saveIfDirty();
+    }
+
     public int getFileFormatVersion() {
         return mStorage.getFileFormatVersion();
     }
@@ -84,6 +146,15 @@ public class StorageManager {
         return mProfilesFile;
     }
 
+    /**
+     * @param id of a job or a task
+     * @param limit
+     * @return the latest runs, newest first
+     */
+    public List<Run> getRecentRuns(String id, int limit) {
+        return HistoryStore.getInstance().getRecentRuns(id, limit);
+    }
+
     public TaskManager getTaskManager() {
         return mTaskManager;
     }
@@ -92,28 +163,112 @@ public class StorageManager {
         return mUserDirectory;
     }
 
-    public void load() throws IOException {
-        if (mProfilesFile.exists()) {
-            mStorage = Storage.open(mProfilesFile);
-
-            var taskItems = mTaskManager.getIdToItem();
-            taskItems.clear();
-            taskItems.putAll(mStorage.getTasks());
+    /**
+     * Loads the profiles and applies the changes of an interrupted save from
+     * the journal in memory.
+     * <p>
+     * Neither the profiles nor the journal are written, the server and the
+     * command line only read them. The GUI, which owns the journal, writes the
+     * replayed changes with saveJournaledChanges.
+     *
+     * @throws IOException
+     */
+    public synchronized void load() throws IOException {
+        mStorage = mProfilesFile.exists() ? Storage.open(mProfilesFile) : new Storage();
+        mNumOfJournaledChanges = mJournal.replay(mStorage.getJobs(), mStorage.getTasks());
+
+        var items = new ArrayList<BaseItem>(mStorage.getTasks().values());
+        items.addAll(mStorage.getJobs().values());
+        StateStore.getInstance().load(items);
+
+        var taskItems = mTaskManager.getIdToItem();
+        taskItems.clear();
+        taskItems.putAll(mStorage.getTasks());
+
+        var jobItems = mJobManager.getIdToItem();
+        jobItems.clear();
+        jobItems.putAll(mStorage.getJobs());
+    }
 
-            var jobItems = mJobManager.getIdToItem();
-            jobItems.clear();
-            jobItems.putAll(mStorage.getJobs());
-        } else {
-            mStorage = new Storage();
+    /**
+     * Journals the changes and writes the profiles after a short delay, so
+     * that consecutive changes result in a single write.
+     * <p>
+     * The current jobs and tasks are captured on the calling thread, which owns
+     * the maps.
+     *
+     * @param changes adds the changed items to the journal, may be null
+     */
+    public synchronized void requestSave(Consumer<Journal> changes) {
+        if (changes != null) {
+            changes.accept(mJournal);
+            try {
+                mJournal.commit();
+            } catch (IOException ex) {
+                Exceptions.printStackTrace(ex);
+            }
         }
-    }
 
-    private void saveToFile() throws IOException {
         mStorage.setJobs(mJobManager.getIdToItem());
         mStorage.setTasks(mTaskManager.getIdToItem());
-        mStorage.save(mProfilesFile);
+        mDirty = true;
+
+        if (mSaveFuture == null) {
+            mSaveFuture = mSaveExecutorService.schedule(this::saveIfDirty, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs the runnable once pending changes are written to disk, or at once
+     * if there are none.
+     *
+     * @param runnable
+     */
+    public void runAfterSave(Runnable runnable) {
+        synchronized (this) {
+            if (mDirty) {
+                mAfterSaveRunnables.add(runnable);
+                return;
+            }
+        }
+
+        runnable.run();
+    }
+
+    /**
+     * Writes the changes replayed from the journal by load to the profiles,
+     * which clears the journal. Only called by the GUI.
+     */
+    public synchronized void saveJournaledChanges() {
+        FileUtils.deleteQuietly(Storage.getTempFile(mProfilesFile));
+        if (mNumOfJournaledChanges > 0) {
+            mNumOfJournaledChanges = 0;
+            requestSave(null);
+        }
+    }
+
+    private void saveIfDirty() {
+        var afterSaveRunnables = new ArrayList<Runnable>();
+
+        synchronized (this) {
+            mSaveFuture = null;
+            if (!mDirty) {
+                return;
+            }
+
+            mDirty = false;
+            try {
+                mStorage.save(mProfilesFile, Options.getInstance().isCompactProfiles());
+                mJournal.clear();
+            } catch (IOException | RuntimeException ex) {
+                //The changes are kept in the journal and replayed on next load
+                Exceptions.printStackTrace(ex);
+            }
+            afterSaveRunnables.addAll(mAfterSaveRunnables);
+            mAfterSaveRunnables.clear();
+        }
 
-        load(); //This will refresh and sort ListViews
+        afterSaveRunnables.forEach(Runnable::run);
     }
 
     private static class Holder {
@@ -131,10 +286,28 @@ public class StorageManager {
         @SerializedName("tasks")
         private final HashMap<String, Task> mTasks = new HashMap<>();
 
+        static File getTempFile(File file) {
+            return new File(file.getPath() + ".tmp");
+        }
+
+        /**
+         * Reads the profiles straight from the file, without holding the
+         * whole json in memory.
+         *
+         * @param file
+         * @return the storage
+         * @throws IOException
+         * @throws JsonSyntaxException
+         */
         public static Storage open(File file) throws IOException, JsonSyntaxException {
-            String json = FileUtils.readFileToString(file, Charset.defaultCharset());
+            Storage storage;
+            try (var jsonReader = new JsonReader(Files.newBufferedReader(file.toPath(), Charset.defaultCharset()))) {
+                storage = GSON.fromJson(jsonReader, Storage.class);
+            }
 
-            var storage = GSON.fromJson(json, Storage.class);
+            if (storage == null) {
+                storage = StorageManager.getInstance().new Storage();
+            }
 
             if (storage.mFileFormatVersion != FILE_FORMAT_VERSION) {
                 //TODO Handle file format version change
@@ -155,12 +328,34 @@ public class StorageManager {
             return mTasks;
         }
 
-        public String save(File file) throws IOException {
+        /**
+         * Streams the profiles to a synced temp file and renames it, so that
+         * the file is either the old or the new version, even after a crash.
+         * The temp file is removed if the write fails.
+         *
+         * @param file
+         * @param compact true to write without indentation
+         * @throws IOException
+         */
+        public void save(File file, boolean compact) throws IOException {
             mFileFormatVersion = FILE_FORMAT_VERSION;
-            var json = GSON.toJson(this);
-            FileUtils.writeStringToFile(file, json, Charset.defaultCharset());
+            var tempFile = getTempFile(file);
+            try (var outputStream = new FileOutputStream(tempFile)) {
+                var jsonWriter = new JsonWriter(new BufferedWriter(new OutputStreamWriter(outputStream, Charset.defaultCharset())));
+                jsonWriter.setIndent(compact ? "" : "  ");
+                GSON.toJson(this, Storage.class, jsonWriter);
+                jsonWriter.flush();
+                outputStream.getFD().sync();
+            } catch (IOException | RuntimeException ex) {
+                FileUtils.deleteQuietly(tempFile);
+                throw ex;
+            }
 
-            return json;
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
         }
 
         void setJobs(ObservableMap<String, Job> jobs) {
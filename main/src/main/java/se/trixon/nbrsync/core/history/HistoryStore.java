@@ -0,0 +1,272 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core.history;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.openide.util.Exceptions;
+import se.trixon.nbrsync.core.StorageManager;
+
+/**
+ * Run history in append-only segment files with a fixed size index per job
+ * and task.
+ * <p>
+ * Every index entry is the segment number and the offset of a run in it, so
+ * the latest runs of an id are found by reading the tail of its index.
+ * Segments are rotated by size and removed by count and age, after which the
+ * indexes are compacted.
+ * <p>
+ * The GUI and the server both add runs, so writers hold an exclusive lock on
+ * {@code runs.lock} and look up the current segment under it.
+ *
+ * @author Patrik Karlström
+ */
+public class HistoryStore {
+
+    private static final int ENTRY_SIZE = Integer.BYTES + Long.BYTES;
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final Duration MAX_AGE = Duration.ofDays(365);
+    private static final int MAX_SEGMENTS = 64;
+    private static final long MAX_SEGMENT_SIZE = 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private final File mDirectory;
+    private final File mIndexDirectory;
+    private final File mLockFile;
+    private int mSegment = -1;
+
+    public static HistoryStore getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private HistoryStore() {
+        mDirectory = new File(StorageManager.getInstance().getUserDirectory(), "var/runs");
+        mIndexDirectory = new File(mDirectory, "index");
+        mLockFile = new File(mDirectory, "runs.lock");
+    }
+
+    public synchronized void add(Run run) {
+        try {
+            FileUtils.forceMkdir(mIndexDirectory);
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+            return;
+        }
+
+        try (var lockChannel = FileChannel.open(mLockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            lockChannel.lock();
+            //Another process may have rotated since the last add
+            boolean rotate = mSegment < 0;
+            mSegment = Math.max(1, getSegments().stream().mapToInt(i -> i).max().orElse(1));
+            var segmentFile = getSegmentFile(mSegment);
+            if (segmentFile.length() >= MAX_SEGMENT_SIZE) {
+                mSegment++;
+                segmentFile = getSegmentFile(mSegment);
+                rotate = true;
+            }
+            if (rotate) {
+                rotate();
+            }
+
+            long offset;
+            try (var raf = new RandomAccessFile(segmentFile, "rw")) {
+                offset = raf.length();
+                raf.seek(offset);
+                raf.write(run.toLine().getBytes(StandardCharsets.UTF_8));
+            }
+
+            var entry = ByteBuffer.allocate(ENTRY_SIZE).putInt(mSegment).putLong(offset).array();
+            Files.write(getIndexFile(run.getId()).toPath(), entry, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        }
+    }
+
+    /**
+     * @param id of a job or a task
+     * @param limit
+     * @return the latest runs, newest first
+     */
+    public synchronized List<Run> getRecentRuns(String id, int limit) {
+        var runs = new ArrayList<Run>();
+        var indexFile = getIndexFile(id);
+        if (!indexFile.isFile() || limit < 1) {
+            return runs;
+        }
+
+        var segmentToFile = new HashMap<Integer, RandomAccessFile>();
+        try (var index = new RandomAccessFile(indexFile, "r")) {
+            long entries = index.length() / ENTRY_SIZE;
+            var buffer = new byte[ENTRY_SIZE];
+
+            for (long i = entries - 1; i >= 0 && runs.size() < limit; i--) {
+                index.seek(i * ENTRY_SIZE);
+                index.readFully(buffer);
+                var entry = ByteBuffer.wrap(buffer);
+                int segment = entry.getInt();
+                long offset = entry.getLong();
+
+                var segmentFile = getSegmentFile(segment);
+                if (!segmentFile.isFile()) {
+                    break;
+                }
+
+                var raf = segmentToFile.get(segment);
+                if (raf == null) {
+                    raf = new RandomAccessFile(segmentFile, "r");
+                    segmentToFile.put(segment, raf);
+                }
+
+                var run = Run.parse(readLine(raf, offset));
+                if (run != null && StringUtils.equals(run.getId(), id)) {
+                    runs.add(run);
+                }
+            }
+        } catch (IOException ex) {
+            Exceptions.printStackTrace(ex);
+        } finally {
+            for (var raf : segmentToFile.values()) {
+                try {
+                    raf.close();
+                } catch (IOException ex) {
+                    //nvm
+                }
+            }
+        }
+
+        return runs;
+    }
+
+    /**
+     * Removes the runs of a job or task that no longer exists.
+     *
+     * @param id
+     */
+    public synchronized void remove(String id) {
+        FileUtils.deleteQuietly(getIndexFile(id));
+    }
+
+    private void compact(int oldestSegment) throws IOException {
+        var indexFiles = mIndexDirectory.listFiles((dir, name) -> name.endsWith(INDEX_SUFFIX));
+        if (indexFiles == null) {
+            return;
+        }
+
+        for (var indexFile : indexFiles) {
+            var bytes = Files.readAllBytes(indexFile.toPath());
+            var buffer = ByteBuffer.wrap(bytes);
+            int firstValid = 0;
+            while (firstValid + ENTRY_SIZE <= bytes.length && buffer.getInt(firstValid) < oldestSegment) {
+                firstValid += ENTRY_SIZE;
+            }
+
+            if (firstValid == 0) {
+                continue;
+            } else if (firstValid >= bytes.length) {
+                FileUtils.deleteQuietly(indexFile);
+            } else {
+                var tmpFile = new File(indexFile.getPath() + ".tmp");
+                Files.write(tmpFile.toPath(), Arrays.copyOfRange(bytes, firstValid, bytes.length));
+                Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    private File getIndexFile(String id) {
+        return new File(mIndexDirectory, id + INDEX_SUFFIX);
+    }
+
+    private File getSegmentFile(int segment) {
+        return new File(mDirectory, "%08d%s".formatted(segment, SEGMENT_SUFFIX));
+    }
+
+    private List<Integer> getSegments() {
+        var segments = new ArrayList<Integer>();
+        var files = mDirectory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (var file : files) {
+                try {
+                    segments.add(Integer.parseInt(StringUtils.removeEnd(file.getName(), SEGMENT_SUFFIX)));
+                } catch (NumberFormatException ex) {
+                    //nvm
+                }
+            }
+        }
+        segments.sort(null);
+
+        return segments;
+    }
+
+    private String readLine(RandomAccessFile raf, long offset) throws IOException {
+        raf.seek(offset);
+        var baos = new ByteArrayOutputStream(256);
+        var buffer = new byte[256];
+        int length;
+
+        while ((length = raf.read(buffer)) > 0) {
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    baos.write(buffer, 0, i);
+                    return baos.toString(StandardCharsets.UTF_8);
+                }
+            }
+            baos.write(buffer, 0, length);
+        }
+
+        return baos.toString(StandardCharsets.UTF_8);
+    }
+
+    private void rotate() throws IOException {
+        var segments = getSegments();
+        long minModified = System.currentTimeMillis() - MAX_AGE.toMillis();
+        int oldestSegment = -1;
+
+        for (int i = 0; i < segments.size(); i++) {
+            int segment = segments.get(i);
+            var file = getSegmentFile(segment);
+            boolean tooMany = segments.size() - i > MAX_SEGMENTS;
+            if (segment != mSegment && (tooMany || file.lastModified() < minModified)) {
+                FileUtils.deleteQuietly(file);
+                oldestSegment = segment + 1;
+            } else {
+                break;
+            }
+        }
+
+        if (oldestSegment > 0) {
+            compact(oldestSegment);
+        }
+    }
+
+    private static class Holder {
+
+        private static final HistoryStore INSTANCE = new HistoryStore();
+    }
+}
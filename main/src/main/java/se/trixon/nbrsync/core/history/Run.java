@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core.history;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A finished run of a job or a task.
+ *
+ * @author Patrik Karlström
+ */
+public class Run {
+
+    private final boolean mDryRun;
+    private final long mEnded;
+    private final int mExitCode;
+    private final String mId;
+    private final long mStarted;
+    private final String mStatus;
+
+    /**
+     * @param line a line written by toLine
+     * @return the run or null if the line is malformed
+     */
+    public static Run parse(String line) {
+        var elements = StringUtils.splitPreserveAllTokens(line, '\t');
+        if (elements.length < 6) {
+            return null;
+        }
+
+        try {
+            return new Run(
+                    elements[0],
+                    Long.parseLong(elements[1]),
+                    Long.parseLong(elements[2]),
+                    Integer.parseInt(elements[3]),
+                    "1".equals(elements[4]),
+                    elements[5]
+            );
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    public Run(String id, long started, long ended, int exitCode, boolean dryRun, String status) {
+        mId = id;
+        mStarted = started;
+        mEnded = ended;
+        mExitCode = exitCode;
+        mDryRun = dryRun;
+        mStatus = StringUtils.defaultString(status);
+    }
+
+    public long getDuration() {
+        return mEnded - mStarted;
+    }
+
+    public long getEnded() {
+        return mEnded;
+    }
+
+    public int getExitCode() {
+        return mExitCode;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public long getStarted() {
+        return mStarted;
+    }
+
+    public String getStatus() {
+        return mStatus;
+    }
+
+    public boolean isDryRun() {
+        return mDryRun;
+    }
+
+    public String toLine() {
+        return "%s\t%d\t%d\t%d\t%s\t%s\n".formatted(mId, mStarted, mEnded, mExitCode, mDryRun ? "1" : "0", StringUtils.replaceChars(mStatus, "\t\r\n", "   "));
+    }
+}
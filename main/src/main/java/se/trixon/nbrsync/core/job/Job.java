@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -42,8 +43,12 @@ public class Job extends BaseItem {
     private boolean mCronActivated;
     @SerializedName("cronItems")
     private String mCronItems = "";
+    @SerializedName("dependencies")
+    private HashMap<String, ArrayList<String>> mDependencies = new HashMap<>();
     @SerializedName("executeSection")
     private final JobExecuteSection mExecuteSection;
+    @SerializedName("parallelTasks")
+    private int mParallelTasks = 1;
     private final transient ObjectProperty<ProcessState> mProcessStateProperty = new SimpleObjectProperty<>(ProcessState.STARTABLE);
     @SerializedName("tasks")
     private ArrayList<String> mTaskIds = new ArrayList<>();
@@ -67,10 +72,28 @@ public class Job extends BaseItem {
         return Arrays.stream(StringUtils.split(getCronItems(), "|")).map(s -> new CronItem(s)).toList();
     }
 
+    public HashMap<String, ArrayList<String>> getDependencies() {
+        if (mDependencies == null) {
+            mDependencies = new HashMap<>();
+        }
+
+        return mDependencies;
+    }
+
+    public List<String> getDependencies(String taskId) {
+        return getDependencies().getOrDefault(taskId, new ArrayList<>()).stream()
+                .filter(id -> getTaskIds().contains(id))
+                .toList();
+    }
+
     public JobExecuteSection getExecuteSection() {
         return mExecuteSection;
     }
 
+    public int getParallelTasks() {
+        return Math.max(1, mParallelTasks);
+    }
+
     public ProcessState getProcessState() {
         return mProcessStateProperty.get();
     }
@@ -115,6 +138,10 @@ public class Job extends BaseItem {
         mCronItems = cronItems;
     }
 
+    public void setDependencies(HashMap<String, ArrayList<String>> dependencies) {
+        mDependencies = dependencies;
+    }
+
     public void setLocked(boolean locked) {
         try {
             if (locked) {
@@ -127,6 +154,10 @@ public class Job extends BaseItem {
         }
     }
 
+    public void setParallelTasks(int parallelTasks) {
+        mParallelTasks = parallelTasks;
+    }
+
     public void setProcessStateProperty(ProcessState processState) {
         mProcessStateProperty.set(processState);
     }
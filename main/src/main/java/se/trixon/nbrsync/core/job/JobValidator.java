@@ -41,6 +41,7 @@ public class JobValidator extends BaseValidator {
         mHtmlBuilder.append("<h1>").append(mJob.getName()).append("</h1>");
         validateExecutors();
         validateTasks();
+        validateDependencies();
     }
 
     @Override
@@ -68,6 +69,15 @@ public class JobValidator extends BaseValidator {
         return !mInvalid;
     }
 
+    private void validateDependencies() {
+        var cycle = new TaskGraph(mJob).getCycle();
+        if (!cycle.isEmpty()) {
+            mInvalid = true;
+            var names = String.join(", ", cycle.stream().map(task -> task.getName()).toList());
+            addSummary(mBundle.getString("JobEditor.dependencies"), mBundle.getString("JobValidator.dependencyCycle").formatted(names));
+        }
+    }
+
     private void validateExecutors() {
         var executeSection = mJob.getExecuteSection();
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core.job;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import se.trixon.nbrsync.core.task.Task;
+
+/**
+ * Keeps track of which tasks of a job that are ready to run, based on the
+ * dependencies declared in the job.
+ *
+ * Tasks are always handed out in the order they appear in the job.
+ *
+ * @author Patrik Karlström <patrik@trixon.se>
+ */
+public class TaskGraph {
+
+    private final HashMap<String, ArrayList<String>> mIdToDependents = new HashMap<>();
+    private final LinkedHashMap<String, Task> mIdToTask = new LinkedHashMap<>();
+    private final HashMap<String, Integer> mIdToUnfinishedPredecessors = new HashMap<>();
+    private final HashMap<String, State> mIdToState = new HashMap<>();
+
+    public TaskGraph(Job job) {
+        for (var task : job.getTasks()) {
+            mIdToTask.put(task.getId(), task);
+            mIdToState.put(task.getId(), State.WAITING);
+        }
+
+        for (var id : mIdToTask.keySet()) {
+            var predecessors = getPredecessors(job, id);
+            mIdToUnfinishedPredecessors.put(id, predecessors.size());
+            for (var predecessor : predecessors) {
+                mIdToDependents.computeIfAbsent(predecessor, k -> new ArrayList<>()).add(id);
+            }
+        }
+    }
+
+    /**
+     * Returns the tasks that can never start because they depend on
+     * themselves, directly or via other tasks.
+     *
+     * @return the tasks in a dependency cycle, in job order
+     */
+    public List<Task> getCycle() {
+        var unfinishedPredecessors = new HashMap<>(mIdToUnfinishedPredecessors);
+        var queue = new ArrayDeque<String>();
+        unfinishedPredecessors.forEach((id, count) -> {
+            if (count == 0) {
+                queue.add(id);
+            }
+        });
+
+        while (!queue.isEmpty()) {
+            var id = queue.poll();
+            unfinishedPredecessors.remove(id);
+            for (var dependent : mIdToDependents.getOrDefault(id, new ArrayList<>())) {
+                if (unfinishedPredecessors.merge(dependent, -1, Integer::sum) == 0) {
+                    queue.add(dependent);
+                }
+            }
+        }
+
+        return mIdToTask.values().stream()
+                .filter(task -> unfinishedPredecessors.containsKey(task.getId()))
+                .toList();
+    }
+
+    /**
+     * Returns the tasks that have not been started, and never will be.
+     *
+     * @return the waiting tasks, in job order
+     */
+    public List<Task> getWaiting() {
+        return getTasks(State.WAITING);
+    }
+
+    /**
+     * Marks all tasks that are ready to run as started and returns them.
+     *
+     * @return the tasks whose predecessors all have succeeded, in job order
+     */
+    public List<Task> pollReady() {
+        var tasks = new ArrayList<Task>();
+        for (var entry : mIdToTask.entrySet()) {
+            var id = entry.getKey();
+            if (mIdToState.get(id) == State.WAITING && mIdToUnfinishedPredecessors.get(id) == 0) {
+                mIdToState.put(id, State.STARTED);
+                tasks.add(entry.getValue());
+            }
+        }
+
+        return tasks;
+    }
+
+    /**
+     * Registers the outcome of a started task.
+     *
+     * @param task the finished task
+     * @param success true if the task succeeded
+     * @return the tasks that will be skipped because of this task failing
+     */
+    public List<Task> setFinished(Task task, boolean success) {
+        var skipped = new ArrayList<Task>();
+        mIdToState.put(task.getId(), success ? State.SUCCEEDED : State.FAILED);
+
+        if (success) {
+            for (var dependent : mIdToDependents.getOrDefault(task.getId(), new ArrayList<>())) {
+                mIdToUnfinishedPredecessors.merge(dependent, -1, Integer::sum);
+            }
+        } else {
+            var queue = new ArrayDeque<>(mIdToDependents.getOrDefault(task.getId(), new ArrayList<>()));
+            while (!queue.isEmpty()) {
+                var id = queue.poll();
+                if (mIdToState.get(id) == State.WAITING) {
+                    mIdToState.put(id, State.SKIPPED);
+                    skipped.add(mIdToTask.get(id));
+                    queue.addAll(mIdToDependents.getOrDefault(id, new ArrayList<>()));
+                }
+            }
+        }
+
+        return skipped;
+    }
+
+    private List<String> getPredecessors(Job job, String id) {
+        return job.getDependencies(id).stream()
+                .filter(predecessor -> mIdToTask.containsKey(predecessor))
+                .filter(predecessor -> !predecessor.equals(id))
+                .distinct()
+                .toList();
+    }
+
+    private List<Task> getTasks(State state) {
+        return mIdToTask.values().stream()
+                .filter(task -> mIdToState.get(task.getId()) == state)
+                .toList();
+    }
+
+    public enum State {
+        WAITING, STARTED, SUCCEEDED, FAILED, SKIPPED;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core.task;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+
+/**
+ * Splits the source of a task into balanced shards of entries at a given
+ * depth, using the longest processing time first heuristic.
+ *
+ * @author Patrik Karlström
+ */
+public class ShardPlanner {
+
+    private final boolean mByFileCount;
+    private final int mDepth;
+    private final int mNumOfShards;
+    private final Path mRoot;
+
+    public ShardPlanner(Path root, int depth, int numOfShards, boolean byFileCount) {
+        mRoot = root;
+        mDepth = Math.max(1, depth);
+        mNumOfShards = Math.max(1, numOfShards);
+        mByFileCount = byFileCount;
+    }
+
+    /**
+     * @return non empty shards, heaviest first
+     * @throws IOException
+     */
+    public List<Shard> plan() throws IOException {
+        var entries = new ArrayList<Entry>();
+        try {
+            entries.addAll(getPaths(mRoot, 1).parallelStream()
+                    .map(path -> new Entry(mRoot.relativize(path), getWeight(path)))
+                    .toList());
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        entries.sort(Comparator.comparingLong(Entry::weight).reversed());
+
+        var shards = new PriorityQueue<Shard>(Comparator.comparingLong(Shard::getWeight));
+        for (int i = 0; i < mNumOfShards; i++) {
+            shards.add(new Shard());
+        }
+
+        for (var entry : entries) {
+            var shard = shards.poll();
+            shard.add(entry);
+            shards.add(shard);
+        }
+
+        return shards.stream()
+                .filter(shard -> !shard.getEntries().isEmpty())
+                .sorted(Comparator.comparingLong(Shard::getWeight).reversed())
+                .toList();
+    }
+
+    private List<Path> getPaths(Path dir, int level) throws IOException {
+        var paths = new ArrayList<Path>();
+
+        try (Stream<Path> stream = Files.list(dir)) {
+            for (var path : stream.sorted().toList()) {
+                if (level < mDepth && Files.isDirectory(path) && !Files.isSymbolicLink(path) && !isEmpty(path)) {
+                    paths.addAll(getPaths(path, level + 1));
+                } else {
+                    paths.add(path);
+                }
+            }
+        }
+
+        return paths;
+    }
+
+    private long getWeight(Path path) {
+        var weight = new long[]{1};
+
+        try {
+            if (Files.isDirectory(path) && !Files.isSymbolicLink(path)) {
+                Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                        weight[0] += mByFileCount ? 1 : attrs.size();
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } else if (!mByFileCount) {
+                weight[0] += Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).size();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return weight[0];
+    }
+
+    private boolean isEmpty(Path dir) throws IOException {
+        try (Stream<Path> stream = Files.list(dir)) {
+            return stream.findAny().isEmpty();
+        }
+    }
+
+    public static class Shard {
+
+        private final List<Path> mEntries = new ArrayList<>();
+        private long mWeight;
+
+        public List<Path> getEntries() {
+            return mEntries;
+        }
+
+        public long getWeight() {
+            return mWeight;
+        }
+
+        private void add(Entry entry) {
+            mEntries.add(entry.path());
+            mWeight += entry.weight();
+        }
+    }
+
+    private record Entry(Path path, long weight) {
+
+    }
+}
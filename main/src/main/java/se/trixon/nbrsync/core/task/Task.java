@@ -38,10 +38,30 @@ public class Task extends BaseItem {
     private final ExcludeSection mExcludeSection;
     @SerializedName("executeSection")
     private final TaskExecuteSection mExecuteSection;
+    @SerializedName("lastRunBytesPerSecond")
+    private long mLastRunBytesPerSecond = -1;
     @SerializedName("noAdditionalDir")
     private boolean mNoAdditionalDir;
+    @SerializedName("noIncRecursive")
+    private boolean mNoIncRecursive;
     @SerializedName("optionSection")
     private final OptionSection mOptionSection;
+    @SerializedName("progress2")
+    private boolean mProgress2;
+    @SerializedName("resource")
+    private String mResource;
+    @SerializedName("retryAttempts")
+    private int mRetryAttempts;
+    @SerializedName("retryDelay")
+    private int mRetryDelay = 30;
+    @SerializedName("retryExitCodes")
+    private String mRetryExitCodes = "12 23 24 30 35";
+    @SerializedName("shardByFileCount")
+    private boolean mShardByFileCount;
+    @SerializedName("shardDepth")
+    private int mShardDepth = 1;
+    @SerializedName("shards")
+    private int mShards = 1;
     @SerializedName("source")
     private String mSource;
 
@@ -52,6 +72,14 @@ public class Task extends BaseItem {
     }
 
     public List<String> getCommand() {
+        return getCommand(List.of(getPath(mSource)));
+    }
+
+    /**
+     * @param sources already converted with getPath
+     * @return
+     */
+    public List<String> getCommand(List<String> sources) {
         mCommand.clear();
 
         if (!StringUtils.isBlank(StringUtils.join(mOptionSection.getCommand(), ""))) {
@@ -66,7 +94,14 @@ public class Task extends BaseItem {
             mCommand.addAll(Arrays.asList(StringUtils.split(mOptionSection.getExtras())));
         }
 
-        add(getPath(mSource));
+        if (mProgress2) {
+            add("--info=progress2");
+            if (mNoIncRecursive) {
+                add("--no-inc-recursive");
+            }
+        }
+
+        sources.forEach(source -> add(source));
         add(getPath(mDestination));
 
         return mCommand;
@@ -92,6 +127,10 @@ public class Task extends BaseItem {
         return mExecuteSection;
     }
 
+    public long getLastRunBytesPerSecond() {
+        return mLastRunBytesPerSecond;
+    }
+
     public OptionSection getOptionSection() {
         return mOptionSection;
     }
@@ -100,6 +139,40 @@ public class Task extends BaseItem {
         return SystemUtils.IS_OS_WINDOWS ? convertToWindowsCygwinPath(path) : path;
     }
 
+    public String getResource() {
+        return mResource;
+    }
+
+    /**
+     * @return how many times a failed rsync is run again, 0 to not retry
+     */
+    public int getRetryAttempts() {
+        return Math.max(0, mRetryAttempts);
+    }
+
+    /**
+     * @return the delay in seconds before the first retry, doubled for each
+     * following retry
+     */
+    public int getRetryDelay() {
+        return Math.max(1, mRetryDelay);
+    }
+
+    /**
+     * @return the rsync exit codes to retry, separated by space or comma
+     */
+    public String getRetryExitCodes() {
+        return mRetryExitCodes;
+    }
+
+    public int getShardDepth() {
+        return Math.max(1, mShardDepth);
+    }
+
+    public int getShards() {
+        return Math.max(1, mShards);
+    }
+
     public String getSource() {
         return mSource;
     }
@@ -112,6 +185,26 @@ public class Task extends BaseItem {
         return mNoAdditionalDir;
     }
 
+    public boolean isNoIncRecursive() {
+        return mNoIncRecursive;
+    }
+
+    public boolean isProgress2() {
+        return mProgress2;
+    }
+
+    public boolean isRetryExitCode(int exitCode) {
+        return exitCode > 0 && Arrays.asList(StringUtils.split(StringUtils.defaultString(mRetryExitCodes), " ,")).contains(String.valueOf(exitCode));
+    }
+
+    public boolean isShardByFileCount() {
+        return mShardByFileCount;
+    }
+
+    public boolean isSharded() {
+        return getShards() > 1;
+    }
+
     public void setDestination(String destination) {
         mDestination = destination;
     }
@@ -120,10 +213,50 @@ public class Task extends BaseItem {
         mEnvironment = environment;
     }
 
+    public void setLastRunBytesPerSecond(long lastRunBytesPerSecond) {
+        mLastRunBytesPerSecond = lastRunBytesPerSecond;
+    }
+
     public void setNoAdditionalDir(boolean value) {
         mNoAdditionalDir = value;
     }
 
+    public void setNoIncRecursive(boolean noIncRecursive) {
+        mNoIncRecursive = noIncRecursive;
+    }
+
+    public void setProgress2(boolean progress2) {
+        mProgress2 = progress2;
+    }
+
+    public void setResource(String resource) {
+        mResource = resource;
+    }
+
+    public void setRetryAttempts(int retryAttempts) {
+        mRetryAttempts = retryAttempts;
+    }
+
+    public void setRetryDelay(int retryDelay) {
+        mRetryDelay = retryDelay;
+    }
+
+    public void setRetryExitCodes(String retryExitCodes) {
+        mRetryExitCodes = retryExitCodes;
+    }
+
+    public void setShardByFileCount(boolean shardByFileCount) {
+        mShardByFileCount = shardByFileCount;
+    }
+
+    public void setShardDepth(int shardDepth) {
+        mShardDepth = shardDepth;
+    }
+
+    public void setShards(int shards) {
+        mShards = shards;
+    }
+
     public void setSource(String source) {
         mSource = source;
     }
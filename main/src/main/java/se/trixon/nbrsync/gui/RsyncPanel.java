@@ -37,17 +37,79 @@ final class RsyncPanel extends javax.swing.JPanel {
     private void initComponents() {
 
         rsyncFileChooserPanel = new se.trixon.almond.util.swing.dialogs.FileChooserPanel();
+        resourceLimitLabel = new javax.swing.JLabel();
+        resourceLimitSpinner = new javax.swing.JSpinner();
+        jobLimitLabel = new javax.swing.JLabel();
+        jobLimitSpinner = new javax.swing.JSpinner();
+        outputLimitLabel = new javax.swing.JLabel();
+        outputLimitSpinner = new javax.swing.JSpinner();
+        progressRateLabel = new javax.swing.JLabel();
+        progressRateSpinner = new javax.swing.JSpinner();
+        compactProfilesCheckBox = new javax.swing.JCheckBox();
+        virtualThreadsCheckBox = new javax.swing.JCheckBox();
 
         java.util.ResourceBundle bundle = java.util.ResourceBundle.getBundle("se/trixon/nbrsync/gui/Bundle"); // NOI18N
         rsyncFileChooserPanel.setHeader(bundle.getString("RsyncPanel.rsyncFileChooserPanel.header")); // NOI18N
 
+        resourceLimitLabel.setLabelFor(resourceLimitSpinner);
+        org.openide.awt.Mnemonics.setLocalizedText(resourceLimitLabel, bundle.getString("RsyncPanel.resourceLimitLabel.text")); // NOI18N
+
+        resourceLimitSpinner.setModel(new javax.swing.SpinnerNumberModel(0, 0, 64, 1));
+        resourceLimitSpinner.setToolTipText(bundle.getString("RsyncPanel.resourceLimitSpinner.toolTipText")); // NOI18N
+
+        jobLimitLabel.setLabelFor(jobLimitSpinner);
+        org.openide.awt.Mnemonics.setLocalizedText(jobLimitLabel, bundle.getString("RsyncPanel.jobLimitLabel.text")); // NOI18N
+
+        jobLimitSpinner.setModel(new javax.swing.SpinnerNumberModel(0, 0, 64, 1));
+        jobLimitSpinner.setToolTipText(bundle.getString("RsyncPanel.jobLimitSpinner.toolTipText")); // NOI18N
+
+        outputLimitLabel.setLabelFor(outputLimitSpinner);
+        org.openide.awt.Mnemonics.setLocalizedText(outputLimitLabel, bundle.getString("RsyncPanel.outputLimitLabel.text")); // NOI18N
+
+        outputLimitSpinner.setModel(new javax.swing.SpinnerNumberModel(0, 0, 10000000, 1000));
+        outputLimitSpinner.setToolTipText(bundle.getString("RsyncPanel.outputLimitSpinner.toolTipText")); // NOI18N
+
+        progressRateLabel.setLabelFor(progressRateSpinner);
+        org.openide.awt.Mnemonics.setLocalizedText(progressRateLabel, bundle.getString("RsyncPanel.progressRateLabel.text")); // NOI18N
+
+        progressRateSpinner.setModel(new javax.swing.SpinnerNumberModel(10, 1, 60, 1));
+
+        org.openide.awt.Mnemonics.setLocalizedText(compactProfilesCheckBox, bundle.getString("RsyncPanel.compactProfilesCheckBox.text")); // NOI18N
+        compactProfilesCheckBox.setToolTipText(bundle.getString("RsyncPanel.compactProfilesCheckBox.toolTipText")); // NOI18N
+
+        org.openide.awt.Mnemonics.setLocalizedText(virtualThreadsCheckBox, bundle.getString("RsyncPanel.virtualThreadsCheckBox.text")); // NOI18N
+        virtualThreadsCheckBox.setToolTipText(bundle.getString("RsyncPanel.virtualThreadsCheckBox.toolTipText")); // NOI18N
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         this.setLayout(layout);
         layout.setHorizontalGroup(
             layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
             .addGroup(layout.createSequentialGroup()
                 .addContainerGap()
-                .addComponent(rsyncFileChooserPanel, javax.swing.GroupLayout.DEFAULT_SIZE, 512, Short.MAX_VALUE)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
+                    .addComponent(rsyncFileChooserPanel, javax.swing.GroupLayout.DEFAULT_SIZE, 512, Short.MAX_VALUE)
+                    .addGroup(layout.createSequentialGroup()
+                        .addComponent(resourceLimitLabel)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(resourceLimitSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, 64, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addGap(0, 0, Short.MAX_VALUE))
+                    .addGroup(layout.createSequentialGroup()
+                        .addComponent(jobLimitLabel)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(jobLimitSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, 64, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addGap(0, 0, Short.MAX_VALUE))
+                    .addGroup(layout.createSequentialGroup()
+                        .addComponent(outputLimitLabel)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(outputLimitSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, 96, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addGap(0, 0, Short.MAX_VALUE))
+                    .addGroup(layout.createSequentialGroup()
+                        .addComponent(progressRateLabel)
+                        .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                        .addComponent(progressRateSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, 64, javax.swing.GroupLayout.PREFERRED_SIZE)
+                        .addGap(0, 0, Short.MAX_VALUE))
+                    .addComponent(compactProfilesCheckBox)
+                    .addComponent(virtualThreadsCheckBox))
                 .addContainerGap())
         );
         layout.setVerticalGroup(
@@ -55,16 +117,48 @@ final class RsyncPanel extends javax.swing.JPanel {
             .addGroup(layout.createSequentialGroup()
                 .addContainerGap()
                 .addComponent(rsyncFileChooserPanel, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(resourceLimitLabel)
+                    .addComponent(resourceLimitSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(jobLimitLabel)
+                    .addComponent(jobLimitSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(outputLimitLabel)
+                    .addComponent(outputLimitSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
+                    .addComponent(progressRateLabel)
+                    .addComponent(progressRateSpinner, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(compactProfilesCheckBox)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(virtualThreadsCheckBox)
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
     }// </editor-fold>//GEN-END:initComponents
 
     void load() {
         rsyncFileChooserPanel.setPath(mOptions.getRsyncPath());
+        resourceLimitSpinner.setValue(mOptions.getResourceLimit());
+        jobLimitSpinner.setValue(mOptions.getJobLimit());
+        outputLimitSpinner.setValue(mOptions.getOutputLimit());
+        progressRateSpinner.setValue(mOptions.getProgressRate());
+        compactProfilesCheckBox.setSelected(mOptions.isCompactProfiles());
+        virtualThreadsCheckBox.setSelected(mOptions.isVirtualThreads());
     }
 
     void store() {
         mOptions.setRsyncPath(rsyncFileChooserPanel.getPath());
+        mOptions.setResourceLimit((int) resourceLimitSpinner.getValue());
+        mOptions.setJobLimit((int) jobLimitSpinner.getValue());
+        mOptions.setOutputLimit((int) outputLimitSpinner.getValue());
+        mOptions.setProgressRate((int) progressRateSpinner.getValue());
+        mOptions.setCompactProfiles(compactProfilesCheckBox.isSelected());
+        mOptions.setVirtualThreads(virtualThreadsCheckBox.isSelected());
     }
 
     boolean valid() {
@@ -73,6 +167,16 @@ final class RsyncPanel extends javax.swing.JPanel {
     }
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
+    private javax.swing.JCheckBox compactProfilesCheckBox;
+    private javax.swing.JLabel jobLimitLabel;
+    private javax.swing.JSpinner jobLimitSpinner;
+    private javax.swing.JLabel outputLimitLabel;
+    private javax.swing.JSpinner outputLimitSpinner;
+    private javax.swing.JLabel progressRateLabel;
+    private javax.swing.JSpinner progressRateSpinner;
+    private javax.swing.JLabel resourceLimitLabel;
+    private javax.swing.JSpinner resourceLimitSpinner;
     private se.trixon.almond.util.swing.dialogs.FileChooserPanel rsyncFileChooserPanel;
+    private javax.swing.JCheckBox virtualThreadsCheckBox;
     // End of variables declaration//GEN-END:variables
 }
@@ -17,10 +17,13 @@ package se.trixon.nbrsync.ui;
 
 import static j2html.TagCreator.*;
 import j2html.tags.specialized.DivTag;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.ResourceBundle;
 import org.openide.util.NbBundle;
 import se.trixon.almond.util.Dict;
 import se.trixon.nbrsync.core.ExecuteItem;
+import se.trixon.nbrsync.core.TaskManager;
 import se.trixon.nbrsync.core.job.Job;
 import se.trixon.nbrsync.ui.editor.BaseEditor;
 
@@ -40,6 +43,7 @@ public class SummaryBuilder {
 
         var html = body(div(
                 h1(job.getName()),
+                iff(job.getParallelTasks() > 1, p(mBundle.getString("JobEditor.parallelTasks.running").formatted(job.getParallelTasks()))),
                 getExecTag(exec.getBefore(), mBundle.getString("JobEditor.runBefore")),
                 getExecTag(exec.getAfterFail(), mBundle.getString("JobEditor.runAfterFail")),
                 getExecTag(exec.getAfterOk(), mBundle.getString("JobEditor.runAfterOk")),
@@ -49,11 +53,13 @@ public class SummaryBuilder {
                 h2(task.getName()),
                  p(join(b(Dict.SOURCE.toString()), br(), i(task.getSource()))),
                 p(join(b(Dict.DESTINATION.toString()), br(), i(task.getDestination()))),
+                iff(!job.getDependencies(task.getId()).isEmpty(), p(join(b(mBundle.getString("JobEditor.dependsOn")), br(), i(getTaskNames(job.getDependencies(task.getId())))))),
                 getExecTag(task.getExecuteSection().getBefore(), mBundle.getString("TaskEditor.runBefore")),
                 getExecTag(task.getExecuteSection().getAfterFail(), mBundle.getString("TaskEditor.runAfterFail")),
                 getExecTag(task.getExecuteSection().getAfterOk(), mBundle.getString("TaskEditor.runAfterOk")),
                 getExecTag(task.getExecuteSection().getAfter(), mBundle.getString("TaskEditor.runAfter")),
                 iff(task.getExecuteSection().isJobHaltOnError(), p(mBundle.getString("TaskEditor.stopJobOnError"))),
+                iff(task.isSharded(), p(mBundle.getString("TaskEditor.shards.running").formatted(task.getShards(), task.getShardDepth()))),
                 h3("rsync"),
                 p(task.getCommandAsString())
         )
@@ -74,4 +80,8 @@ public class SummaryBuilder {
             return null;
         }
     }
+
+    private String getTaskNames(List<String> taskIds) {
+        return String.join(", ", TaskManager.getInstance().getTasks(new ArrayList<>(taskIds)).stream().map(task -> task.getName()).toList());
+    }
 }
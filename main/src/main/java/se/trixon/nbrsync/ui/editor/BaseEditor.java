@@ -88,7 +88,7 @@ public abstract class BaseEditor<T extends BaseItem> extends BorderPane {
         mItem.setName(mNameTextField.getText());
         mItem.setDescription(mDescTextField.getText());
 
-        StorageManager.save();
+        StorageManager.save(journal -> journal.put(mItem));
 
         return mItem;
     }
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.ui.editor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.Tab;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.Priority;
+import org.controlsfx.control.CheckListView;
+import org.openide.util.NbBundle;
+import se.trixon.almond.util.Dict;
+import se.trixon.almond.util.fx.FxHelper;
+import se.trixon.nbrsync.core.task.Task;
+
+/**
+ *
+ * @author Patrik Karlström <patrik@trixon.se>
+ */
+public class DependencyTab extends Tab {
+
+    private final CheckListView<Task> mCheckListView = new CheckListView<>();
+    private final HashMap<String, ArrayList<String>> mDependencies = new HashMap<>();
+    private boolean mLoading;
+    private ObservableList<Task> mTasks;
+    private final ListView<Task> mTaskListView = new ListView<>();
+
+    public DependencyTab() {
+        super(NbBundle.getMessage(DependencyTab.class, "JobEditor.dependencies"));
+        createUI();
+        initListeners();
+    }
+
+    HashMap<String, ArrayList<String>> getDependencies() {
+        var taskIds = mTasks.stream().map(task -> task.getId()).toList();
+        var dependencies = new HashMap<String, ArrayList<String>>();
+        mDependencies.forEach((id, predecessors) -> {
+            if (taskIds.contains(id)) {
+                var validPredecessors = new ArrayList<>(predecessors.stream().filter(p -> taskIds.contains(p)).toList());
+                if (!validPredecessors.isEmpty()) {
+                    dependencies.put(id, validPredecessors);
+                }
+            }
+        });
+
+        return dependencies;
+    }
+
+    void load(HashMap<String, ArrayList<String>> dependencies, ObservableList<Task> tasks) {
+        mDependencies.clear();
+        dependencies.forEach((id, predecessors) -> mDependencies.put(id, new ArrayList<>(predecessors)));
+        mTasks = tasks;
+        mTaskListView.setItems(tasks);
+        mTaskListView.getSelectionModel().selectFirst();
+        loadPredecessors(mTaskListView.getSelectionModel().getSelectedItem());
+    }
+
+    private void createUI() {
+        var taskLabel = new Label(Dict.TASK.toString());
+        var dependsOnLabel = new Label(NbBundle.getMessage(DependencyTab.class, "JobEditor.dependsOn"));
+
+        var gp = new GridPane(FxHelper.getUIScaled(8), FxHelper.getUIScaled(8));
+        gp.addColumn(0, taskLabel, mTaskListView);
+        gp.addColumn(1, dependsOnLabel, mCheckListView);
+        GridPane.setVgrow(mTaskListView, Priority.ALWAYS);
+        GridPane.setVgrow(mCheckListView, Priority.ALWAYS);
+        FxHelper.autoSizeColumn(gp, 2);
+        FxHelper.setPadding(FxHelper.getUIScaledInsets(8, 0, 8, 0), gp);
+
+        setContent(gp);
+    }
+
+    private void initListeners() {
+        mTaskListView.getSelectionModel().selectedItemProperty().addListener((p, o, n) -> {
+            loadPredecessors(n);
+        });
+
+        mCheckListView.getCheckModel().getCheckedItems().addListener((ListChangeListener.Change<? extends Task> c) -> {
+            var task = mTaskListView.getSelectionModel().getSelectedItem();
+            if (mLoading || task == null) {
+                return;
+            }
+
+            var predecessors = mCheckListView.getCheckModel().getCheckedItems().stream()
+                    .map(t -> t.getId())
+                    .toList();
+            mDependencies.put(task.getId(), new ArrayList<>(predecessors));
+        });
+    }
+
+    private void loadPredecessors(Task task) {
+        mLoading = true;
+        mCheckListView.getCheckModel().clearChecks();
+
+        if (task == null) {
+            mCheckListView.getItems().clear();
+        } else {
+            mCheckListView.getItems().setAll(mTasks.stream().filter(t -> t != task).toList());
+            for (var id : mDependencies.getOrDefault(task.getId(), new ArrayList<>())) {
+                mCheckListView.getItems().stream()
+                        .filter(t -> t.getId().equals(id))
+                        .findFirst()
+                        .ifPresent(t -> mCheckListView.getCheckModel().check(t));
+            }
+        }
+
+        mLoading = false;
+    }
+}
@@ -17,6 +17,7 @@ package se.trixon.nbrsync.ui.editor;
 
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
@@ -24,6 +25,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import javafx.application.Platform;
 import javafx.geometry.Side;
@@ -40,12 +42,14 @@ import javafx.scene.layout.GridPane;
 import javafx.scene.text.FontWeight;
 import javafx.util.Duration;
 import javax.swing.SwingUtilities;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.controlsfx.control.action.Action;
 import org.controlsfx.control.action.ActionUtils;
 import org.openide.DialogDescriptor;
 import org.openide.DialogDisplayer;
 import org.openide.util.NbBundle;
+import org.openide.windows.IOProvider;
 import se.trixon.almond.nbp.Almond;
 import se.trixon.almond.nbp.fx.FxDialogPanel;
 import se.trixon.almond.nbp.fx.NbEditableList;
@@ -61,6 +65,7 @@ import se.trixon.nbrsync.core.BaseItem;
 import se.trixon.nbrsync.core.BaseManager;
 import se.trixon.nbrsync.core.ExecutorManager;
 import se.trixon.nbrsync.core.JobManager;
+import se.trixon.nbrsync.core.RunLog;
 import se.trixon.nbrsync.core.Server;
 import se.trixon.nbrsync.core.StorageManager;
 import static se.trixon.nbrsync.core.StorageManager.GSON;
@@ -75,6 +80,8 @@ import se.trixon.nbrsync.core.task.Task;
 public class EditorPane extends TabPane {
 
     private static final int ICON_SIZE_TOOLBAR = FxHelper.getUIScaled(28);
+    private static final int NUM_OF_LOG_LINES = 200;
+    private static final int NUM_OF_RECENT_RUNS = 5;
     private final ResourceBundle mBundle = NbBundle.getBundle(EditorPane.class);
     private final ExecutorManager mExecutorManager = ExecutorManager.getInstance();
     private final JobManager mJobManager = JobManager.getInstance();
@@ -82,6 +89,7 @@ public class EditorPane extends TabPane {
     private final Consumer<Task> mOnStartTask;
     private final TaskManager mTaskManager = TaskManager.getInstance();
     private BaseItemPane mTaskPane;
+    private final StorageManager mStorageManager = StorageManager.getInstance();
 
     public EditorPane() {
         mOnStartTask = task -> {
@@ -170,12 +178,13 @@ public class EditorPane extends TabPane {
                         edit(title, item);
                     })
                     .setOnRemoveAll(() -> {
+                        var items = new ArrayList<T>(mManager.getItems());
                         mManager.getIdToItem().clear();
-                        StorageManager.save();
+                        StorageManager.save(journal -> items.forEach(journal::remove));
                     })
                     .setOnRemove(item -> {
                         mManager.getIdToItem().remove(item.getId());
-                        StorageManager.save();
+                        StorageManager.save(journal -> journal.remove(item));
                     })
                     .setOnClone(item -> {
                         var original = item;
@@ -187,7 +196,7 @@ public class EditorPane extends TabPane {
                         clone.setName("%s %s".formatted(clone.getName(), LocalDate.now().toString()));
                         mManager.getIdToItem().put(clone.getId(), clone);
 
-                        StorageManager.save();
+                        StorageManager.save(journal -> journal.put(clone));
 
                         return (T) mManager.getById(uuid);
                     })
@@ -234,7 +243,7 @@ public class EditorPane extends TabPane {
                     Platform.runLater(() -> {
                         var editedItem = editor.save();
                         select((T) mManager.getById(editedItem.getId()));
-                        Server.getInstance().markForReload();
+                        mStorageManager.runAfterSave(() -> Server.getInstance().markForReload());
                     });
                 } else {
                     Platform.runLater(() -> editor.cancel());
@@ -293,6 +302,9 @@ public class EditorPane extends TabPane {
                         minSec[0],
                         minSec[1]
                 );
+                if (item instanceof Task task && task.getLastRunBytesPerSecond() > 0) {
+                    lastRun = "%s %s/s".formatted(lastRun, FileUtils.byteCountToDisplaySize(task.getLastRunBytesPerSecond()));
+                }
             }
             mLastLabel.setText(lastRun);
 
@@ -337,6 +349,7 @@ public class EditorPane extends TabPane {
 
             var tooltipString = StringUtils.defaultIfBlank(sb.toString(), mBundle.getString("noTasksForJob"));
             var tooltip = new Tooltip(tooltipString);
+            tooltip.setOnShowing(event -> loadRecentRuns(tooltip, item.getId(), tooltipString));
             tooltip.setShowDelay(Duration.seconds(2));
             tooltip.setHideDelay(Duration.seconds(5));
             tooltip.setStyle(FxHelper.createFontStyle(1.0, FontWeight.BOLD));
@@ -387,17 +400,68 @@ public class EditorPane extends TabPane {
             });
             copyRsyncAction.setGraphic(MaterialIcon._Content.CONTENT_COPY.getImageView(FxHelper.getUIScaled(16)));
 
-            var actions = Arrays.asList(copyRsyncAction);
+            var showLogAction = new Action(mBundle.getString("showLog"), actionEvent -> {
+                if (getItem() instanceof Job job) {
+                    showLog(job);
+                }
+            });
+
+            var actions = Arrays.asList(copyRsyncAction, showLogAction);
             var contextMenu = ActionUtils.createContextMenu(actions);
 
             setOnMousePressed(mouseEvent -> {
                 getScene().getWindow().requestFocus();
                 if (getItem() != null) {
                     if (mouseEvent.isSecondaryButtonDown()) {
+                        showLogAction.setDisabled(!(getItem() instanceof Job));
                         contextMenu.show(this, mouseEvent.getScreenX(), mouseEvent.getScreenY());
                     }
                 }
             });
         }
+
+        /**
+         * Reads the recent runs off the FX thread and adds them to the
+         * tooltip, every time it is shown.
+         */
+        private void loadRecentRuns(Tooltip tooltip, String id, String tooltipString) {
+            CompletableFuture.supplyAsync(() -> mStorageManager.getRecentRuns(id, NUM_OF_RECENT_RUNS)).thenAccept(runs -> {
+                if (runs.isEmpty()) {
+                    return;
+                }
+
+                FxHelper.runLater(() -> {
+                    var runsBuilder = new StringBuilder(tooltipString).append("\r\r").append(mBundle.getString("recentRuns"));
+                    for (var run : runs) {
+                        var minSec = TimeHelper.millisToMinSec(run.getDuration());
+                        runsBuilder.append("\r").append("%s (%dm %ds) %s [%d]".formatted(
+                                mSimpleDateFormat.format(new Date(run.getStarted())),
+                                minSec[0],
+                                minSec[1],
+                                run.getStatus(),
+                                run.getExitCode()
+                        ));
+                    }
+                    tooltip.setText(runsBuilder.toString());
+                });
+            });
+        }
+
+        private void showLog(Job job) {
+            var inputOutput = IOProvider.getDefault().getIO("%s: %s".formatted(job.getName(), mBundle.getString("log")), true);
+            inputOutput.select();
+
+            new Thread(() -> {
+                var runs = RunLog.getRuns(job.getId());
+                if (runs.isEmpty()) {
+                    inputOutput.getErr().println(mBundle.getString("noLog"));
+                } else {
+                    inputOutput.getOut().println(runs.getFirst().getPath());
+                    RunLog.tail(runs.getFirst(), NUM_OF_LOG_LINES, line -> inputOutput.getOut().println(line));
+                }
+                inputOutput.getOut().close();
+                inputOutput.getErr().close();
+            }, "RunLog").start();
+        }
     }
 }
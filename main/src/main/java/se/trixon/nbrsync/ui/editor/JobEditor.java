@@ -16,12 +16,15 @@
 package se.trixon.nbrsync.ui.editor;
 
 import java.util.ArrayList;
+import javafx.geometry.Pos;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import javafx.scene.control.Spinner;
 import javafx.scene.control.Tab;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import org.controlsfx.control.ListActionView;
@@ -44,8 +47,10 @@ public class JobEditor extends BaseEditor<Job> {
 
     private final CheckBox mActivatedCheckBox = new CheckBox(Dict.ACTIVE.toString());
     private NbCronPane mCronPane;
+    private final DependencyTab mDependencyTab = new DependencyTab();
     private Job mItem;
     private ListSelectionView<Task> mListSelectionView;
+    private final Spinner<Integer> mParallelTasksSpinner = new Spinner<>(1, 64, 1);
     private RunSectionPane mRunAfterFailSection;
     private RunSectionPane mRunAfterOkSection;
     private RunSectionPane mRunAfterSection;
@@ -71,12 +76,14 @@ public class JobEditor extends BaseEditor<Job> {
         mRunAfterFailSection.load(execute.getAfterFail());
         mRunAfterOkSection.load(execute.getAfterOk());
         mRunAfterSection.load(execute.getAfter());
+        mParallelTasksSpinner.getValueFactory().setValue(item.getParallelTasks());
 
         var selectedTasks = item.getTasks();
         var availableTasks = new ArrayList<>(TaskManager.getInstance().getItems());
         availableTasks.removeAll(selectedTasks);
         mListSelectionView.getSourceItems().setAll(availableTasks);
         mListSelectionView.getTargetItems().setAll(selectedTasks);
+        mDependencyTab.load(item.getDependencies(), mListSelectionView.getTargetItems());
 
         mActivatedCheckBox.setSelected(item.isCronActivated());
         mCronPane.getItems().setAll(item.getCronItemsAsList());
@@ -96,11 +103,13 @@ public class JobEditor extends BaseEditor<Job> {
         save(execute.getAfterFail(), mRunAfterFailSection);
         save(execute.getAfterOk(), mRunAfterOkSection);
         save(execute.getAfter(), mRunAfterSection);
+        mItem.setParallelTasks(mParallelTasksSpinner.getValue());
 
         var taskIds = mListSelectionView.getTargetItems().stream()
                 .map(task -> task.getId())
                 .toList();
         mItem.setTaskIds(new ArrayList<>(taskIds));
+        mItem.setDependencies(mDependencyTab.getDependencies());
         mItem.setCronActivated(mActivatedCheckBox.isSelected());
         mItem.setCronItems(String.join("|", mCronPane.getItems().stream().sorted().map(c -> c.getName()).toList()));
         mItem.setEnv(mEnvironmentTab.getEnv());
@@ -139,7 +148,13 @@ public class JobEditor extends BaseEditor<Job> {
         mListSelectionView.getSourceItems().addAll(TaskManager.getInstance().getItems());
         mListSelectionView.getTargetActions().addAll(createTaskTargetActions());
 
+        var parallelTasksLabel = new Label(mBundle.getString("JobEditor.parallelTasks"));
+        var parallelTasksBox = new HBox(FxHelper.getUIScaled(8), parallelTasksLabel, mParallelTasksSpinner);
+        parallelTasksBox.setAlignment(Pos.CENTER_LEFT);
+        mParallelTasksSpinner.setPrefWidth(FxHelper.getUIScaled(80));
+
         var runBox = new VBox(FxHelper.getUIScaled(16),
+                parallelTasksBox,
                 mRunBeforeSection,
                 mRunAfterFailSection,
                 mRunAfterOkSection,
@@ -154,7 +169,7 @@ public class JobEditor extends BaseEditor<Job> {
 
         var runTab = new Tab(Dict.RUN.toString(), runBox);
         var cronTab = new Tab(Dict.SCHEDULER.toString(), cronBorderPane);
-        getTabPane().getTabs().setAll(runTab, cronTab, mEnvironmentTab);
+        getTabPane().getTabs().setAll(runTab, mDependencyTab, cronTab, mEnvironmentTab);
         int row = 0;
         var gp = new GridPane(FxHelper.getUIScaled(8), FxHelper.getUIScaled(8));
         gp.add(mListSelectionView, 0, row++, GridPane.REMAINING, 1);
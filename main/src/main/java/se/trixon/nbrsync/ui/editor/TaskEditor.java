@@ -26,6 +26,7 @@ import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListCell;
+import javafx.scene.control.Spinner;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TextField;
 import javafx.scene.input.MouseButton;
@@ -67,12 +68,21 @@ public class TaskEditor extends BaseEditor<Task> {
     private FileChooserPaneSwingFx mDirSourceFileChooser;
     private TextField mExtraOptionsTextField;
     private Task mItem;
+    private CheckBox mNoIncRecursiveCheckBox;
+    private CheckBox mProgress2CheckBox;
+    private TextField mResourceTextField;
+    private final Spinner<Integer> mRetryAttemptsSpinner = new Spinner<>(0, 10, 0);
+    private final Spinner<Integer> mRetryDelaySpinner = new Spinner<>(1, 3600, 30);
+    private TextField mRetryExitCodesTextField;
     private RunSectionPane mRunAfterFailSection;
     private RunSectionPane mRunAfterOkSection;
     private RunSectionPane mRunAfterSection;
     private RunSectionPane mRunBeforeSection;
     private RunSectionPane mRunExcludeSection;
     private CheckBox mRunStopJobOnErrorCheckBox;
+    private CheckBox mShardByFileCountCheckBox;
+    private final Spinner<Integer> mShardDepthSpinner = new Spinner<>(1, 8, 1);
+    private final Spinner<Integer> mShardsSpinner = new Spinner<>(1, 64, 1);
 
     public TaskEditor() {
         super(TaskManager.getInstance());
@@ -112,6 +122,15 @@ public class TaskEditor extends BaseEditor<Task> {
         mDirForceSourceSlashCheckBox.setSelected(StringUtils.endsWith(mDirSourceFileChooser.getPathAsString(), File.separator));
         mEnvironmentTab.setEnvironment(item.getEnv());
         mExtraOptionsTextField.setText(item.getOptionSection().getExtras());
+        mResourceTextField.setText(item.getResource());
+        mProgress2CheckBox.setSelected(item.isProgress2());
+        mNoIncRecursiveCheckBox.setSelected(item.isNoIncRecursive());
+        mShardsSpinner.getValueFactory().setValue(item.getShards());
+        mShardDepthSpinner.getValueFactory().setValue(item.getShardDepth());
+        mShardByFileCountCheckBox.setSelected(item.isShardByFileCount());
+        mRetryAttemptsSpinner.getValueFactory().setValue(item.getRetryAttempts());
+        mRetryExitCodesTextField.setText(item.getRetryExitCodes());
+        mRetryDelaySpinner.getValueFactory().setValue(item.getRetryDelay());
 
         super.load(item, dialogDescriptor);
         mItem = item;
@@ -153,6 +172,15 @@ public class TaskEditor extends BaseEditor<Task> {
 
         mItem.setEnv(mEnvironmentTab.getEnv());
         mItem.getOptionSection().setExtras(mExtraOptionsTextField.getText());
+        mItem.setResource(StringUtils.trimToNull(mResourceTextField.getText()));
+        mItem.setProgress2(mProgress2CheckBox.isSelected());
+        mItem.setNoIncRecursive(mNoIncRecursiveCheckBox.isSelected());
+        mItem.setShards(mShardsSpinner.getValue());
+        mItem.setShardDepth(mShardDepthSpinner.getValue());
+        mItem.setShardByFileCount(mShardByFileCountCheckBox.isSelected());
+        mItem.setRetryAttempts(mRetryAttemptsSpinner.getValue());
+        mItem.setRetryExitCodes(StringUtils.normalizeSpace(mRetryExitCodesTextField.getText()));
+        mItem.setRetryDelay(mRetryDelaySpinner.getValue());
 
         return super.save();
     }
@@ -210,12 +238,17 @@ public class TaskEditor extends BaseEditor<Task> {
 
         var extraOptionsLabel = new Label(mBundle.getString("extraOptions"));
         mExtraOptionsTextField = new TextField();
+        mProgress2CheckBox = new CheckBox(mBundle.getString("TaskEditor.progress2"));
+        mNoIncRecursiveCheckBox = new CheckBox(mBundle.getString("TaskEditor.noIncRecursive"));
+        mNoIncRecursiveCheckBox.disableProperty().bind(mProgress2CheckBox.selectedProperty().not());
+        var progressBox = new HBox(FxHelper.getUIScaled(16), mProgress2CheckBox, mNoIncRecursiveCheckBox);
 
         int row = 0;
         var gp = new GridPane(FxHelper.getUIScaled(8), FxHelper.getUIScaled(8));
         gp.add(mArgRsyncListSelectionView, 0, row++, GridPane.REMAINING, 1);
         gp.add(extraOptionsLabel, 0, row++, GridPane.REMAINING, 1);
         gp.add(mExtraOptionsTextField, 0, row++, GridPane.REMAINING, 1);
+        gp.add(progressBox, 0, row++, GridPane.REMAINING, 1);
 
         GridPane.setVgrow(mArgRsyncListSelectionView, Priority.ALWAYS);
         FxHelper.autoSizeColumn(gp, 1);
@@ -232,13 +265,45 @@ public class TaskEditor extends BaseEditor<Task> {
         mRunAfterFailSection = new RunSectionPane(mBundle.getString("TaskEditor.runAfterFail"), true, false);
         mRunAfterOkSection = new RunSectionPane(mBundle.getString("TaskEditor.runAfterOk"), true, false);
         mRunAfterSection = new RunSectionPane(mBundle.getString("TaskEditor.runAfter"), true, false);
+        mResourceTextField = new TextField();
+        mResourceTextField.setPromptText(mBundle.getString("TaskEditor.resource.prompt"));
+        var resourceLabel = new Label(mBundle.getString("TaskEditor.resource"));
+        var resourceBox = new VBox(FxHelper.getUIScaled(4), resourceLabel, mResourceTextField);
+
+        var shardsLabel = new Label(mBundle.getString("TaskEditor.shards"));
+        var shardDepthLabel = new Label(mBundle.getString("TaskEditor.shardDepth"));
+        mShardByFileCountCheckBox = new CheckBox(mBundle.getString("TaskEditor.shardByFileCount"));
+        mShardsSpinner.setPrefWidth(FxHelper.getUIScaled(80));
+        mShardDepthSpinner.setPrefWidth(FxHelper.getUIScaled(80));
+        var shardBox = new HBox(FxHelper.getUIScaled(8), shardsLabel, mShardsSpinner, shardDepthLabel, mShardDepthSpinner, mShardByFileCountCheckBox);
+        shardBox.setAlignment(Pos.CENTER_LEFT);
+        shardDepthLabel.disableProperty().bind(mShardsSpinner.valueProperty().isEqualTo(1));
+        mShardDepthSpinner.disableProperty().bind(shardDepthLabel.disableProperty());
+        mShardByFileCountCheckBox.disableProperty().bind(shardDepthLabel.disableProperty());
+
+        var retryLabel = new Label(mBundle.getString("TaskEditor.retry"));
+        var retryExitCodesLabel = new Label(mBundle.getString("TaskEditor.retryExitCodes"));
+        var retryDelayLabel = new Label(mBundle.getString("TaskEditor.retryDelay"));
+        mRetryExitCodesTextField = new TextField();
+        mRetryExitCodesTextField.setPromptText("12 23 24 30 35");
+        mRetryAttemptsSpinner.setPrefWidth(FxHelper.getUIScaled(80));
+        mRetryDelaySpinner.setPrefWidth(FxHelper.getUIScaled(80));
+        var retryBox = new HBox(FxHelper.getUIScaled(8), retryLabel, mRetryAttemptsSpinner, retryExitCodesLabel, mRetryExitCodesTextField, retryDelayLabel, mRetryDelaySpinner);
+        retryBox.setAlignment(Pos.CENTER_LEFT);
+        retryExitCodesLabel.disableProperty().bind(mRetryAttemptsSpinner.valueProperty().isEqualTo(0));
+        mRetryExitCodesTextField.disableProperty().bind(retryExitCodesLabel.disableProperty());
+        retryDelayLabel.disableProperty().bind(retryExitCodesLabel.disableProperty());
+        mRetryDelaySpinner.disableProperty().bind(retryExitCodesLabel.disableProperty());
 
         var gp = new GridPane(FxHelper.getUIScaled(8), FxHelper.getUIScaled(16));
         gp.addColumn(0,
                 mRunBeforeSection,
                 mRunAfterFailSection,
                 mRunAfterOkSection,
-                mRunAfterSection
+                mRunAfterSection,
+                resourceBox,
+                shardBox,
+                retryBox
         );
         FxHelper.autoSizeColumn(gp, 1);
         FxHelper.setPadding(FxHelper.getUIScaledInsets(16, 0, 8, 0), gp);
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import se.trixon.nbrsync.Options;
+
+/**
+ * Compares virtual and platform threads for concurrent simulated jobs,
+ * dispatched to the executor of ExecutorManager with the virtual threads
+ * option on and off. Each job runs a process whose stdout and stderr are read
+ * by JobExecutor.readLines on threads of ExecutorManager.newThreadFactory.
+ * <p>
+ * Reports the peak number of platform threads, the heap in use and the time
+ * until all jobs have ended.
+ *
+ * @author Patrik Karlström
+ */
+public class DispatchBenchmark {
+
+    private static final String[] COMMAND = {"sh", "-c", "for i in 1 2 3 4 5; do echo line $i; echo error $i >&2; sleep 0.1; done"};
+    private static final int[] NUM_OF_JOBS = {10, 100, 500};
+
+    public static void main(String[] args) throws InterruptedException {
+        var options = Options.getInstance();
+        boolean virtualThreads = options.isVirtualThreads();
+
+        try {
+            System.out.println("threads\tjobs\tpeak threads\theap MiB\tms\tlines");
+            for (var numOfJobs : NUM_OF_JOBS) {
+                options.setVirtualThreads(true);
+                run("virtual", numOfJobs);
+                options.setVirtualThreads(false);
+                run("platform", numOfJobs);
+            }
+        } finally {
+            options.setVirtualThreads(virtualThreads);
+        }
+
+        System.exit(0);
+    }
+
+    private static void run(String name, int numOfJobs) throws InterruptedException {
+        var executorManager = ExecutorManager.getInstance();
+        var executorService = executorManager.getExecutorService();
+        var threadFactory = executorManager.newThreadFactory("JobExecutor.Process");
+        var threadMXBean = ManagementFactory.getThreadMXBean();
+        var memoryMXBean = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        threadMXBean.resetPeakThreadCount();
+        long heapBefore = memoryMXBean.getHeapMemoryUsage().getUsed();
+
+        var numOfLines = new AtomicLong();
+        var latch = new CountDownLatch(numOfJobs);
+        var peakHeap = new AtomicLong();
+        long started = System.nanoTime();
+
+        for (int i = 0; i < numOfJobs; i++) {
+            executorService.execute(() -> {
+                try {
+                    var process = new ProcessBuilder(COMMAND).start();
+                    var readers = new ArrayList<Thread>();
+                    readers.add(threadFactory.newThread(() -> JobExecutor.readLines(process.getInputStream(), line -> numOfLines.incrementAndGet())));
+                    readers.add(threadFactory.newThread(() -> JobExecutor.readLines(process.getErrorStream(), line -> numOfLines.incrementAndGet())));
+                    readers.forEach(Thread::start);
+                    process.waitFor();
+                    for (var reader : readers) {
+                        reader.join();
+                    }
+                    peakHeap.accumulateAndGet(memoryMXBean.getHeapMemoryUsage().getUsed(), Math::max);
+                } catch (IOException ex) {
+                    System.err.println(ex);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+
+        latch.await();
+        long millis = (System.nanoTime() - started) / 1_000_000;
+
+        System.out.println("%s\t%d\t%d\t%.1f\t%d\t%d".formatted(
+                name,
+                numOfJobs,
+                threadMXBean.getPeakThreadCount(),
+                Math.max(0, peakHeap.get() - heapBefore) / 1024.0 / 1024.0,
+                millis,
+                numOfLines.get()
+        ));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Measures the write and the streaming read of the profiles, and the heap
+ * held by the read profiles, in pretty and compact mode.
+ * <p>
+ * Run it with the test classpath, and a fixed heap for comparable figures,
+ * e.g. -Xms2g -Xmx2g.
+ *
+ * @author Patrik Karlström
+ */
+public class LoadBenchmark {
+
+    private static final int[] NUM_OF_TASKS = {10_000, 100_000};
+
+    public static void main(String[] args) throws IOException {
+        var userDirectory = Files.createTempDirectory("nbrsync-benchmark");
+        System.setProperty("netbeans.user", userDirectory.toString());
+        var storageManager = StorageManager.getInstance();
+
+        System.out.println("tasks\tmode\tfile KiB\tsave ms\topen ms\theap MiB\tread");
+        for (var numOfTasks : NUM_OF_TASKS) {
+            for (var compact : new boolean[]{false, true}) {
+                var file = new File(userDirectory.toFile(), "profiles-%d.json".formatted(numOfTasks));
+                var storage = storageManager.new Storage();
+                for (int i = 0; i < numOfTasks; i++) {
+                    var task = SaveBenchmark.createTask(i);
+                    storage.getTasks().put(task.getId(), task);
+                }
+
+                long started = System.nanoTime();
+                storage.save(file, compact);
+                long saveNanos = System.nanoTime() - started;
+                storage = null;
+
+                long heapBefore = getUsedHeap();
+                started = System.nanoTime();
+                var loaded = StorageManager.Storage.open(file);
+                long openNanos = System.nanoTime() - started;
+                long heap = getUsedHeap() - heapBefore;
+
+                System.out.println("%d\t%s\t%d\t%.1f\t%.1f\t%.1f\t%d".formatted(
+                        numOfTasks,
+                        compact ? "compact" : "pretty",
+                        file.length() / 1024,
+                        saveNanos / 1e6,
+                        openNanos / 1e6,
+                        heap / 1024.0 / 1024.0,
+                        loaded.getTasks().size()
+                ));
+            }
+        }
+    }
+
+    private static long getUsedHeap() {
+        var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
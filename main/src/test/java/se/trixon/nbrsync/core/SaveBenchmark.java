@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import se.trixon.nbrsync.core.task.Task;
+
+/**
+ * Measures how long a change to one task blocks the caller, the journal
+ * commit included, and how long the debounced write of all profiles takes.
+ * <p>
+ * Run it with the test classpath, it works in a temporary user directory.
+ *
+ * @author Patrik Karlström
+ */
+public class SaveBenchmark {
+
+    private static final int NUM_OF_SAVES = 200;
+    private static final int[] NUM_OF_TASKS = {1_000, 5_000, 10_000};
+
+    public static void main(String[] args) throws IOException {
+        var userDirectory = Files.createTempDirectory("nbrsync-benchmark");
+        System.setProperty("netbeans.user", userDirectory.toString());
+        var storageManager = StorageManager.getInstance();
+        var taskItems = storageManager.getTaskManager().getIdToItem();
+
+        System.out.println("tasks\trequest avg ms\trequest max ms\twrite ms\tfile KiB");
+        for (var numOfTasks : NUM_OF_TASKS) {
+            taskItems.clear();
+            for (int i = 0; i < numOfTasks; i++) {
+                var task = createTask(i);
+                taskItems.put(task.getId(), task);
+            }
+            storageManager.requestSave(null);
+            storageManager.flush();
+
+            var tasks = taskItems.values().toArray(Task[]::new);
+            long totalNanos = 0;
+            long maxNanos = 0;
+            for (int i = 0; i < NUM_OF_SAVES; i++) {
+                var task = tasks[i % tasks.length];
+                task.setDescription("Changed %d".formatted(i));
+                long started = System.nanoTime();
+                StorageManager.save(journal -> journal.put(task));
+                long nanos = System.nanoTime() - started;
+                totalNanos += nanos;
+                maxNanos = Math.max(maxNanos, nanos);
+            }
+
+            storageManager.requestSave(null);
+            long started = System.nanoTime();
+            storageManager.flush();
+            long writeNanos = System.nanoTime() - started;
+
+            System.out.println("%d\t%.3f\t%.3f\t%.1f\t%d".formatted(
+                    numOfTasks,
+                    totalNanos / 1e6 / NUM_OF_SAVES,
+                    maxNanos / 1e6,
+                    writeNanos / 1e6,
+                    storageManager.getProfilesFile().length() / 1024
+            ));
+        }
+    }
+
+    static Task createTask(int index) {
+        var task = new Task();
+        task.setName("Task %06d".formatted(index));
+        task.setDescription("Benchmark task %d".formatted(index));
+        task.setSource("/home/user/projects/%d/".formatted(index));
+        task.setDestination("/mnt/backup/projects/%d/".formatted(index));
+
+        return task;
+    }
+}
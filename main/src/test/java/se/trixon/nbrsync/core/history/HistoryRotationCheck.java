@@ -0,0 +1,60 @@
+/*
+ * Copyright 2024 Patrik Karlström <patrik@trixon.se>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.trixon.nbrsync.core.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Adds more than a segment of runs and checks that the history is rotated
+ * into a second segment, and that the latest runs are still found.
+ * <p>
+ * Run it with the test classpath, it works in a temporary user directory and
+ * exits with 1 if a check fails.
+ *
+ * @author Patrik Karlström
+ */
+public class HistoryRotationCheck {
+
+    public static void main(String[] args) throws IOException {
+        var userDirectory = Files.createTempDirectory("nbrsync-check");
+        System.setProperty("netbeans.user", userDirectory.toString());
+        var historyStore = HistoryStore.getInstance();
+
+        var status = "x".repeat(1000);
+        long numOfBytes = 0;
+        int numOfRuns = 0;
+        while (numOfBytes <= 2 * 1024 * 1024) {
+            var run = new Run("task-%d".formatted(numOfRuns % 10), numOfRuns, numOfRuns + 1, 0, false, status);
+            historyStore.add(run);
+            numOfBytes += run.toLine().length();
+            numOfRuns++;
+        }
+
+        var segments = new File(userDirectory.toFile(), "var/runs").list((dir, name) -> name.endsWith(".seg"));
+        int numOfSegments = segments == null ? 0 : segments.length;
+        var recentRuns = historyStore.getRecentRuns("task-%d".formatted((numOfRuns - 1) % 10), 1);
+        long lastStarted = recentRuns.isEmpty() ? -1 : recentRuns.getFirst().getStarted();
+
+        System.out.println("%d runs, %d bytes, %d segments, last started %d".formatted(numOfRuns, numOfBytes, numOfSegments, lastStarted));
+        if (numOfSegments < 2 || lastStarted != numOfRuns - 1) {
+            System.err.println("FAILED");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+}